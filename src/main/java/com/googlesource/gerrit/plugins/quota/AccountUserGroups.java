@@ -0,0 +1,71 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.entities.GroupReference;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.account.AccountCache;
+import com.google.gerrit.server.account.AccountState;
+import com.google.gerrit.server.account.GroupBackend;
+import com.google.gerrit.server.account.GroupBackends;
+import com.google.gerrit.server.account.GroupMembership;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves the groups of a user from its account, as {@link AccountLimitsFinder} does for the rate
+ * limits. The groups are looked up by exact name through the group backend, which unlike the
+ * groups REST collection doesn't need a current user, as tasks are admitted outside of requests.
+ */
+@Singleton
+public class AccountUserGroups implements UserGroups {
+  private static final Logger log = LoggerFactory.getLogger(AccountUserGroups.class);
+
+  private final AccountCache accountCache;
+  private final IdentifiedUser.GenericFactory userFactory;
+  private final GroupBackend groupBackend;
+
+  @Inject
+  AccountUserGroups(
+      AccountCache accountCache,
+      IdentifiedUser.GenericFactory userFactory,
+      GroupBackend groupBackend) {
+    this.accountCache = accountCache;
+    this.userFactory = userFactory;
+    this.groupBackend = groupBackend;
+  }
+
+  @Override
+  public Optional<String> firstMatching(String userName, Iterable<String> groupNames) {
+    Optional<AccountState> account = accountCache.getByUsername(userName);
+    if (account.isEmpty()) {
+      return Optional.empty();
+    }
+    GroupMembership membership =
+        userFactory.create(account.get().account().id()).getEffectiveGroups();
+    for (String groupName : groupNames) {
+      GroupReference group = GroupBackends.findExactSuggestion(groupBackend, groupName);
+      if (group == null) {
+        log.debug("Ignoring weight for unknown group ''{}'' in quota.config", groupName);
+      } else if (membership.contains(group.getUUID())) {
+        return Optional.of(groupName);
+      }
+    }
+    return Optional.empty();
+  }
+}
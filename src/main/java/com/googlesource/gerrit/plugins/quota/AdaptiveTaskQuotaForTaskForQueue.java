@@ -0,0 +1,184 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the tasks started for a task and queue combination to a number that adapts to how long
+ * the tasks take to run.
+ *
+ * <p>The limit is adjusted with additive increase, multiplicative decrease (AIMD) on the run time
+ * of each task, from {@code onStart} to {@code onStop}. The run time is compared with the baseline,
+ * the lowest recent run time of the tasks on the same repository, as the run times of tasks on
+ * different repositories differ by orders of magnitude. While the run time stays below {@link
+ * #TOLERANCE} times the baseline and the limit is being used, the limit grows by one for every
+ * {@code limit} tasks. A task that takes longer shows that the host is overloaded, and the limit is
+ * reduced by {@link #BACKOFF}, at most once for the tasks that were started before the previous
+ * reduction. The limit stays within the configured bounds, and settles where the tasks take about
+ * {@link #TOLERANCE} times as long as when the host is idle.
+ *
+ * <p>If the tasks are slow even at the lower bound, the baseline slowly drifts towards their run
+ * time, so that it recovers if the tasks become slower for good, e.g. because the repositories
+ * grew. The first task on a repository sets its baseline. The baselines of the {@link
+ * #MAX_BASELINES} most recently run repositories are kept.
+ */
+public class AdaptiveTaskQuotaForTaskForQueue extends TaskQuotaForTaskForQueue {
+  public static final Logger log = LoggerFactory.getLogger(AdaptiveTaskQuotaForTaskForQueue.class);
+  public static final String KEY = "adaptiveMaxStartForTaskForQueue";
+  // 4 32 uploadpack SSH-Interactive-Worker
+  public static final Pattern CONFIG_PATTERN =
+      Pattern.compile(
+          "(\\d+)\\s+(\\d+)\\s+("
+              + String.join("|", SUPPORTED_TASKS_BY_GROUP.keySet())
+              + ")\\s+(.+)");
+  static final double TOLERANCE = 1.5;
+  static final double BACKOFF = 0.9;
+  private static final int BASELINE_DRIFT = 100;
+  static final int MAX_BASELINES = 10_000;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final LongSupplier nanoTime;
+  private final Map<Integer, Started> startedByTaskId = new HashMap<>();
+  private final Map<String, Long> baselineNanosByProject =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+          return size() > MAX_BASELINES;
+        }
+      };
+  private double limit;
+  private int running;
+  private long lastBackoffAt = Long.MIN_VALUE;
+
+  /** When a task started, and the project its run time is compared within. */
+  private record Started(long at, String project) {}
+
+  public AdaptiveTaskQuotaForTaskForQueue(
+      QuotaSection quotaSection, String queueName, String taskGroup, int minLimit, int maxLimit) {
+    this(quotaSection, queueName, taskGroup, minLimit, maxLimit, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  AdaptiveTaskQuotaForTaskForQueue(
+      QuotaSection quotaSection,
+      String queueName,
+      String taskGroup,
+      int minLimit,
+      int maxLimit,
+      LongSupplier nanoTime) {
+    super(quotaSection, queueName, taskGroup, maxLimit);
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.nanoTime = nanoTime;
+    this.limit = minLimit;
+  }
+
+  public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (matcher.matches()) {
+      int min = Integer.parseInt(matcher.group(1));
+      int max = Integer.parseInt(matcher.group(2));
+      if (min >= 1 && min <= max) {
+        return Optional.of(
+            new AdaptiveTaskQuotaForTaskForQueue(
+                qs, matcher.group(4), matcher.group(3), min, max));
+      }
+    }
+    log.error("Invalid configuration entry [{}]", cfg);
+    return Optional.empty();
+  }
+
+  @Override
+  public synchronized boolean isReadyToStart(WorkQueue.Task<?> task) {
+    if (running >= (int) limit) {
+      return false;
+    }
+    running++;
+    return true;
+  }
+
+  @Override
+  public synchronized void forceStart(WorkQueue.Task<?> task) {
+    running++;
+  }
+
+  @Override
+  public synchronized void onStart(WorkQueue.Task<?> task) {
+    String project = TaskDescriptor.get(task).project().map(Project.NameKey::get).orElse("");
+    startedByTaskId.put(task.getTaskId(), new Started(nanoTime.getAsLong(), project));
+  }
+
+  @Override
+  public synchronized void onStop(WorkQueue.Task<?> task) {
+    running--;
+    Started started = startedByTaskId.remove(task.getTaskId());
+    if (started != null) {
+      sample(started.at(), started.project(), nanoTime.getAsLong() - started.at());
+    }
+  }
+
+  private void sample(long start, String project, long runNanos) {
+    Long previous = baselineNanosByProject.get(project);
+    long baselineNanos;
+    if (previous == null || runNanos < previous) {
+      baselineNanos = runNanos;
+    } else if ((int) limit == minLimit) {
+      // Slow even with the fewest tasks running, so the baseline is too low.
+      baselineNanos = previous + (runNanos - previous) / BASELINE_DRIFT;
+    } else {
+      baselineNanos = previous;
+    }
+    baselineNanosByProject.put(project, baselineNanos);
+
+    if (runNanos > TOLERANCE * baselineNanos) {
+      if (start > lastBackoffAt) {
+        limit = Math.max(minLimit, limit * BACKOFF);
+        lastBackoffAt = nanoTime.getAsLong();
+        log.debug("{}: slow task, limit lowered to {}", this, (int) limit);
+      }
+    } else if (running + 1 >= (int) limit) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+  }
+
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  @Override
+  public synchronized Optional<Permits> getPermits() {
+    return Optional.of(new Permits(running, (int) limit));
+  }
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": task [%s], queue [%s], permits [%d..%d], namespace [%s]"
+            .formatted(taskGroup, queueName, minLimit, maxLimit, quotaSection.getNamespace());
+  }
+}
@@ -21,14 +21,24 @@ import com.google.inject.Inject;
 public class DeletionListener implements ProjectDeletedListener {
 
   private final RepoSizeCache repoSizeCache;
+  private final IncrementalDiskUsage incrementalDiskUsage;
+  private final NamespaceProjectCounts namespaceProjectCounts;
 
   @Inject
-  public DeletionListener(RepoSizeCache repoSizeCache) {
+  public DeletionListener(
+      RepoSizeCache repoSizeCache,
+      IncrementalDiskUsage incrementalDiskUsage,
+      NamespaceProjectCounts namespaceProjectCounts) {
     this.repoSizeCache = repoSizeCache;
+    this.incrementalDiskUsage = incrementalDiskUsage;
+    this.namespaceProjectCounts = namespaceProjectCounts;
   }
 
   @Override
   public void onProjectDeleted(Event event) {
-    repoSizeCache.evict(Project.nameKey(event.getProjectName()));
+    Project.NameKey project = Project.nameKey(event.getProjectName());
+    repoSizeCache.evict(project);
+    incrementalDiskUsage.forget(project);
+    namespaceProjectCounts.remove(project);
   }
 }
@@ -0,0 +1,422 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.math.LongMath;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares the tasks started in a queue between the users that have tasks waiting, in proportion to
+ * their weights.
+ *
+ * <p>The weight of a user is the one of the first configured group that the user is a member of,
+ * or the default weight. It is resolved once per user and kept for {@link #WEIGHT_EXPIRY_NANOS},
+ * so that admitting a task doesn't look up the groups of its user each time.
+ *
+ * <p>This is deficit round robin with a quantum of the user's weight and a cost of one per started
+ * task, kept as a virtual time per user: every admitted task advances the virtual time of its user
+ * by {@code 1 / weight}, and a task that stops without having started gives it back and counts as
+ * waiting again, as it is parked again when another quota refused it. The virtual time is counted
+ * in units of {@code 1 / lcm(weights)}, so that it is exact. While tasks of several users are
+ * waiting, a task is only admitted if no other waiting user has a lower virtual time, so over time
+ * each waiting user starts a number of tasks proportional to its weight. As in start-time fair
+ * queuing, a user that becomes active again, i.e. has tasks waiting or running, continues from the
+ * lowest virtual time at which an admitted task was charged, so that it can't catch up for the time
+ * it wasn't active. If no other user is waiting, tasks are admitted right away.
+ *
+ * <p>A user counts as waiting while it has tasks that were refused by this quota, or parked because
+ * the queue was full, and the last of them was refused less than {@link #WAITING_EXPIRY_NANOS} ago,
+ * so that tasks that are cancelled while parked don't block other users.
+ *
+ * <p>Admission doesn't take a lock shared by all users: the share of each user is only updated
+ * while its entry in a concurrent map is computed, and the admitted tasks and waiting users are
+ * kept ordered by virtual time in concurrent skip lists, so that finding the lowest virtual time
+ * only looks at their first entries.
+ */
+public class FairShareForQueue implements TaskQuota {
+  public static final Logger log = LoggerFactory.getLogger(FairShareForQueue.class);
+  public static final String KEY = "fairShareForQueue";
+  public static final String DEFAULT_WEIGHT_GROUP = "*";
+  // SSH-Batch-Worker *=4 CI-Bots=1
+  public static final Pattern CONFIG_PATTERN =
+      Pattern.compile("(\\S+)((?:\\s+[^\\s=]+=\\d+)*)\\s*");
+  private static final Pattern WEIGHT_PATTERN = Pattern.compile("([^\\s=]+)=(\\d+)");
+  static final long WAITING_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+  static final long WEIGHT_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(10);
+  private static final int MAX_CACHED_WEIGHTS = 10_000;
+
+  private final QuotaSection quotaSection;
+  private final String queue;
+  private final ImmutableMap<String, Integer> weightByGroup;
+  private final int defaultWeight;
+  private final long quantum;
+  private final UserGroups userGroups;
+  private final Cache<String, Integer> weightByUser =
+      CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_WEIGHTS)
+          .expireAfterWrite(WEIGHT_EXPIRY_NANOS, TimeUnit.NANOSECONDS)
+          .build();
+  private final ConcurrentMap<String, UserShare> shareByUser = new ConcurrentHashMap<>();
+
+  /** The admitted tasks that didn't stop yet, lowest virtual time first. */
+  private final ConcurrentSkipListSet<Charge> charges = new ConcurrentSkipListSet<>();
+
+  /** The waiting users, lowest virtual time first. */
+  private final ConcurrentSkipListSet<Waiting> waitingUsers = new ConcurrentSkipListSet<>();
+
+  private final AtomicLong sequence = new AtomicLong();
+
+  /** The highest virtual time of the users when they became inactive. */
+  private final AtomicLong idleVirtualTime = new AtomicLong();
+
+  /** The virtual time at which an admitted task was charged, its cost, and whether it started. */
+  private record Admitted(long virtualTime, long cost, boolean started) {
+    Admitted start() {
+      return new Admitted(virtualTime, cost, true);
+    }
+  }
+
+  /** The virtual time at which an admitted task that didn't stop yet was charged. */
+  private record Charge(long virtualTime, int taskId) implements Comparable<Charge> {
+    @Override
+    public int compareTo(Charge other) {
+      int cmp = Long.compare(virtualTime, other.virtualTime);
+      return cmp != 0 ? cmp : Integer.compare(taskId, other.taskId);
+    }
+  }
+
+  /**
+   * A waiting user with its virtual time, and when one of its tasks was last refused. A new entry
+   * replaces the previous one of the user whenever either changes.
+   */
+  private record Waiting(long virtualTime, long sequence, String user, long refusedAt)
+      implements Comparable<Waiting> {
+    boolean isExpired(long now) {
+      return now - refusedAt > WAITING_EXPIRY_NANOS;
+    }
+
+    @Override
+    public int compareTo(Waiting other) {
+      int cmp = Long.compare(virtualTime, other.virtualTime);
+      return cmp != 0 ? cmp : Long.compare(sequence, other.sequence);
+    }
+  }
+
+  /** The share of a user, only accessed while its entry in {@link #shareByUser} is computed. */
+  private static class UserShare {
+    long virtualTime;
+
+    /** The admitted tasks of the user that didn't stop yet, by task id. */
+    final Map<Integer, Admitted> admitted = new HashMap<>();
+
+    /** The ids of the waiting tasks of the user. */
+    final Set<Integer> waiting = new HashSet<>();
+
+    /** When a waiting task of the user was last refused. */
+    long refusedAt;
+
+    /** The entry of the user in {@link #waitingUsers}, or null. */
+    Waiting entry;
+
+    boolean isWaiting(long now) {
+      return !waiting.isEmpty() && now - refusedAt <= WAITING_EXPIRY_NANOS;
+    }
+
+    boolean isActive(long now) {
+      return !admitted.isEmpty() || isWaiting(now);
+    }
+
+    void addWaiting(int taskId, long now) {
+      waiting.add(taskId);
+      refusedAt = now;
+    }
+  }
+
+  /**
+   * @param weightByGroup the weights by group name, in the order the groups are matched, and the
+   *     default weight for {@link #DEFAULT_WEIGHT_GROUP}
+   * @param userGroups resolves the groups of the users, or null to give all users the default
+   *     weight
+   */
+  public FairShareForQueue(
+      QuotaSection quotaSection,
+      String queue,
+      Map<String, Integer> weightByGroup,
+      UserGroups userGroups) {
+    this.quotaSection = quotaSection;
+    this.queue = queue;
+    this.defaultWeight = weightByGroup.getOrDefault(DEFAULT_WEIGHT_GROUP, 1);
+    long lcm = defaultWeight;
+    for (int weight : weightByGroup.values()) {
+      lcm = LongMath.checkedMultiply(lcm / LongMath.gcd(lcm, weight), weight);
+    }
+    this.quantum = lcm;
+    ImmutableMap.Builder<String, Integer> groups = ImmutableMap.builder();
+    weightByGroup.forEach(
+        (group, weight) -> {
+          if (!group.equals(DEFAULT_WEIGHT_GROUP)) {
+            groups.put(group, weight);
+          }
+        });
+    this.weightByGroup = groups.build();
+    this.userGroups = userGroups;
+  }
+
+  public static Optional<TaskQuota> build(QuotaSection qs, String cfg, UserGroups userGroups) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (!matcher.matches()) {
+      log.error("Invalid configuration entry [{}]", cfg);
+      return Optional.empty();
+    }
+
+    Map<String, Integer> weightByGroup = new LinkedHashMap<>();
+    Matcher weight = WEIGHT_PATTERN.matcher(matcher.group(2));
+    while (weight.find()) {
+      int w = Integer.parseInt(weight.group(2));
+      if (w < 1) {
+        log.error("Invalid weight [{}] in configuration entry [{}]", weight.group(), cfg);
+        return Optional.empty();
+      }
+      weightByGroup.putIfAbsent(weight.group(1), w);
+    }
+    try {
+      return Optional.of(new FairShareForQueue(qs, matcher.group(1), weightByGroup, userGroups));
+    } catch (ArithmeticException e) {
+      log.error("Too many distinct weights in configuration entry [{}]", cfg);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public Optional<String> queue() {
+    return Optional.of(queue);
+  }
+
+  @Override
+  public boolean isApplicable(WorkQueue.Task<?> task) {
+    TaskDescriptor descriptor = TaskDescriptor.get(task);
+    return descriptor.queueName().equals(queue) && descriptor.user().isPresent();
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    long now = System.nanoTime();
+    String user = TaskDescriptor.get(task).user().get();
+    long cost = quantum / weight(user);
+    boolean[] admitted = {false};
+    shareByUser.compute(
+        user,
+        (u, current) -> {
+          UserShare share = activate(current, now);
+          if (hasWaitingUserBefore(u, share.virtualTime, now)) {
+            share.addWaiting(task.getTaskId(), now);
+          } else {
+            share.waiting.remove(task.getTaskId());
+            share.admitted.put(task.getTaskId(), new Admitted(share.virtualTime, cost, false));
+            charges.add(new Charge(share.virtualTime, task.getTaskId()));
+            share.virtualTime += cost;
+            admitted[0] = true;
+          }
+          updateWaiting(u, share, now);
+          return share;
+        });
+    return admitted[0];
+  }
+
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    TaskDescriptor.get(task)
+        .user()
+        .ifPresent(
+            user ->
+                shareByUser.compute(
+                    user,
+                    (u, current) -> {
+                      long now = System.nanoTime();
+                      UserShare share = activate(current, now);
+                      share.admitted.put(
+                          task.getTaskId(), new Admitted(share.virtualTime, 0, true));
+                      charges.add(new Charge(share.virtualTime, task.getTaskId()));
+                      updateWaiting(u, share, now);
+                      return share;
+                    }));
+  }
+
+  @Override
+  public void onQueueFull(WorkQueue.Task<?> task) {
+    long now = System.nanoTime();
+    shareByUser.compute(
+        TaskDescriptor.get(task).user().get(),
+        (u, current) -> {
+          UserShare share = activate(current, now);
+          share.addWaiting(task.getTaskId(), now);
+          updateWaiting(u, share, now);
+          return share;
+        });
+  }
+
+  /**
+   * Returns the share of a user, continuing from the current virtual time if the user was not
+   * active.
+   */
+  private UserShare activate(UserShare share, long now) {
+    if (share == null) {
+      share = new UserShare();
+    }
+    if (!share.isActive(now)) {
+      share.waiting.clear();
+      share.virtualTime = Math.max(share.virtualTime, virtualTime(now));
+    }
+    return share;
+  }
+
+  /** Returns whether another user with a lower virtual time is waiting. */
+  private boolean hasWaitingUserBefore(String user, long virtualTime, long now) {
+    for (Waiting waiting : waitingUsers) {
+      if (waiting.virtualTime() >= virtualTime) {
+        return false;
+      }
+      if (waiting.isExpired(now)) {
+        waitingUsers.remove(waiting);
+      } else if (!waiting.user().equals(user)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Updates the entry of the user in the waiting users, after its share changed. */
+  private void updateWaiting(String user, UserShare share, long now) {
+    Waiting previous = share.entry;
+    if (!share.isWaiting(now)) {
+      share.entry = null;
+    } else if (previous == null
+        || previous.virtualTime() != share.virtualTime
+        || previous.refusedAt() != share.refusedAt) {
+      share.entry =
+          new Waiting(share.virtualTime, sequence.incrementAndGet(), user, share.refusedAt);
+      waitingUsers.add(share.entry);
+    }
+    if (previous != null && previous != share.entry) {
+      waitingUsers.remove(previous);
+    }
+  }
+
+  /**
+   * Returns the lowest virtual time at which the admitted tasks were charged, or if there are none,
+   * the lowest virtual time of the waiting users. If no user is active, returns the highest virtual
+   * time of the users when they became inactive.
+   */
+  private long virtualTime(long now) {
+    for (Charge charge : charges) {
+      return charge.virtualTime();
+    }
+    for (Waiting waiting : waitingUsers) {
+      if (!waiting.isExpired(now)) {
+        return waiting.virtualTime();
+      }
+    }
+    return idleVirtualTime.get();
+  }
+
+  @Override
+  public void onStart(WorkQueue.Task<?> task) {
+    TaskDescriptor.get(task)
+        .user()
+        .ifPresent(
+            user ->
+                shareByUser.computeIfPresent(
+                    user,
+                    (u, share) -> {
+                      share.admitted.computeIfPresent(task.getTaskId(), (id, a) -> a.start());
+                      return share;
+                    }));
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {
+    TaskDescriptor.get(task)
+        .user()
+        .ifPresent(
+            user ->
+                shareByUser.computeIfPresent(
+                    user,
+                    (u, share) -> {
+                      long now = System.nanoTime();
+                      Admitted admitted = share.admitted.remove(task.getTaskId());
+                      if (admitted != null) {
+                        charges.remove(new Charge(admitted.virtualTime(), task.getTaskId()));
+                        if (!admitted.started()) {
+                          // Undoes the admission, e.g. because another quota refused the task,
+                          // which then waits again with the place it had.
+                          share.virtualTime -= admitted.cost();
+                          share.addWaiting(task.getTaskId(), now);
+                        }
+                      }
+                      if (!share.isActive(now)) {
+                        // Continues from the current virtual time once active again.
+                        idleVirtualTime.accumulateAndGet(share.virtualTime, Math::max);
+                        if (share.entry != null) {
+                          waitingUsers.remove(share.entry);
+                        }
+                        return null;
+                      }
+                      updateWaiting(u, share, now);
+                      return share;
+                    }));
+  }
+
+  /** Returns the weight of the user, resolving it from its groups if it is not cached. */
+  int weight(String user) {
+    if (userGroups == null || weightByGroup.isEmpty()) {
+      return defaultWeight;
+    }
+    Integer weight = weightByUser.getIfPresent(user);
+    if (weight == null) {
+      weight =
+          userGroups
+              .firstMatching(user, weightByGroup.keySet())
+              .map(weightByGroup::get)
+              .orElse(defaultWeight);
+      weightByUser.put(user, weight);
+    }
+    return weight;
+  }
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": queue [%s], weights %s, default weight [%d], namespace [%s]"
+            .formatted(queue, weightByGroup, defaultWeight, quotaSection.getNamespace());
+  }
+}
@@ -20,27 +20,31 @@ import com.google.common.cache.LoadingCache;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.restapi.Response;
 import com.google.gerrit.extensions.restapi.RestReadView;
-import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectResource;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class GetQuota implements RestReadView<ProjectResource> {
 
-  private final ProjectCache projectCache;
   private final QuotaFinder quotaFinder;
   private final LoadingCache<Project.NameKey, AtomicLong> repoSizeCache;
+  private final NamespaceSizeIndex namespaceSizeIndex;
+  private final NamespaceProjectCounts namespaceProjectCounts;
 
   @Inject
   public GetQuota(
-      ProjectCache projectCache,
       QuotaFinder quotaFinder,
-      @Named(REPO_SIZE_CACHE) LoadingCache<Project.NameKey, AtomicLong> repoSizeCache) {
-    this.projectCache = projectCache;
+      @Named(REPO_SIZE_CACHE) LoadingCache<Project.NameKey, AtomicLong> repoSizeCache,
+      NamespaceSizeIndex namespaceSizeIndex,
+      NamespaceProjectCounts namespaceProjectCounts) {
     this.quotaFinder = quotaFinder;
     this.repoSizeCache = repoSizeCache;
+    this.namespaceSizeIndex = namespaceSizeIndex;
+    this.namespaceProjectCounts = namespaceProjectCounts;
   }
 
   @Override
@@ -49,6 +53,15 @@ public class GetQuota implements RestReadView<ProjectResource> {
   }
 
   QuotaInfo getInfo(Project.NameKey n) throws ExecutionException {
+    return getInfo(n, new HashMap<>());
+  }
+
+  /**
+   * Returns the quota info of a project, taking the info of its namespace from {@code namespaces}
+   * if it is there and adding it otherwise.
+   */
+  QuotaInfo getInfo(Project.NameKey n, Map<String, NamespaceInfo> namespaces)
+      throws ExecutionException {
     QuotaInfo qi = new QuotaInfo();
     qi.repoSize = repoSizeCache.get(n).get();
 
@@ -58,23 +71,30 @@ public class GetQuota implements RestReadView<ProjectResource> {
     }
 
     qi.maxRepoSize = qs.getMaxRepoSize();
-    qi.namespace = new NamespaceInfo();
-    qi.namespace.name = qs.getNamespace();
-    long totalSize = 0;
-    for (Project.NameKey p : projectCache.all()) {
-      if (qs.matches(p)) {
-        totalSize += repoSizeCache.get(p).get();
-      }
+    qi.namespace = namespaces.get(qs.getNamespace());
+    if (qi.namespace == null) {
+      qi.namespace = getNamespaceInfo(qs);
+      namespaces.put(qs.getNamespace(), qi.namespace);
     }
-    qi.namespace.totalSize = totalSize;
-    qi.namespace.maxTotalSize = qs.getMaxTotalSize();
     return qi;
   }
 
+  private NamespaceInfo getNamespaceInfo(QuotaSection qs) throws ExecutionException {
+    NamespaceInfo ni = new NamespaceInfo();
+    ni.name = qs.getNamespace();
+    ni.totalSize = namespaceSizeIndex.getTotalSize(qs);
+    ni.maxTotalSize = qs.getMaxTotalSize();
+    ni.projects = namespaceProjectCounts.getCount(qs);
+    ni.maxProjects = qs.getMaxProjects();
+    return ni;
+  }
+
   public static class NamespaceInfo {
     public String name;
     public long totalSize;
     public Long maxTotalSize;
+    public int projects;
+    public Integer maxProjects;
   }
 
   public static class QuotaInfo {
@@ -21,10 +21,15 @@ import org.eclipse.jgit.lib.Config;
  * Provides the representation of global-quota config
  *
  * @param cfg quota.cfg file
+ * @param limits limits parsed from the global section
  */
-public record GlobalQuotaSection(Config cfg) implements QuotaSection {
+public record GlobalQuotaSection(Config cfg, QuotaLimits limits) implements QuotaSection {
   public static final String GLOBAL_QUOTA = "global";
 
+  public GlobalQuotaSection(Config cfg) {
+    this(cfg, QuotaLimits.parse(cfg, GLOBAL_QUOTA, null));
+  }
+
   public String getNamespace() {
     return GLOBAL_QUOTA;
   }
@@ -0,0 +1,200 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Computes the disk usage of Git repositories incrementally.
+ *
+ * <p>For every repository the modification time, the size of the contained files and the
+ * subdirectories of each directory are remembered. When the size is computed again, only the
+ * directories whose modification time changed are listed and have their files stat'ed again. This
+ * relies on Git creating, renaming and deleting files rather than rewriting them in place, which
+ * always updates the modification time of the parent directory. The only exception are the
+ * reflogs, that are appended to, so the files below the {@code logs} directory of the repository
+ * are always stat'ed. Directories named {@code logs} deeper in the repository, e.g. a branch named
+ * {@code logs} below {@code refs/heads}, are scanned like any other.
+ *
+ * <p>Directories modified shortly before they were scanned are scanned again next time, as
+ * further changes within the same timestamp granularity would not be noticed otherwise.
+ *
+ * <p>The state is kept for at most {@code maxDirectories} directories over all repositories. When
+ * it would exceed that, the state of the repositories whose size was least recently computed is
+ * dropped, and their next computation lists all their directories again.
+ */
+@Singleton
+public class IncrementalDiskUsage {
+  static final long RACY_MILLIS = 2000;
+  static final long DEFAULT_MAX_DIRECTORIES = 500_000;
+  private static final String LOGS = "logs";
+
+  private final Cache<Project.NameKey, DirectoryState> stateByProject;
+  private final long racyMillis;
+
+  @Inject
+  IncrementalDiskUsage(PluginConfigFactory cfg, @PluginName String pluginName) {
+    this(
+        RACY_MILLIS,
+        cfg.getFromGerritConfig(pluginName)
+            .getLong("incrementalDiskUsageMaxDirectories", DEFAULT_MAX_DIRECTORIES));
+  }
+
+  @VisibleForTesting
+  IncrementalDiskUsage() {
+    this(RACY_MILLIS, DEFAULT_MAX_DIRECTORIES);
+  }
+
+  @VisibleForTesting
+  IncrementalDiskUsage(long racyMillis, long maxDirectories) {
+    this.racyMillis = racyMillis;
+    this.stateByProject =
+        CacheBuilder.newBuilder()
+            .concurrencyLevel(1)
+            .maximumWeight(maxDirectories)
+            .<Project.NameKey, DirectoryState>weigher((project, state) -> state.directories())
+            .build();
+  }
+
+  /** The state of a directory and its subdirectories, {@code directories} counting them all. */
+  private record DirectoryState(
+      long modified,
+      boolean racy,
+      long filesSize,
+      long totalSize,
+      int directories,
+      Map<String, DirectoryState> dirs) {}
+
+  public long getDiskUsage(Project.NameKey project, Path dir) throws IOException {
+    DirectoryState state =
+        scan(dir, stateByProject.getIfPresent(project), System.currentTimeMillis(), true, false);
+    stateByProject.put(project, state);
+    return state.totalSize();
+  }
+
+  /** Forgets the state of a repository, e.g. after it was deleted. */
+  public void forget(Project.NameKey project) {
+    stateByProject.invalidate(project);
+  }
+
+  /** Returns whether the state of the repository is kept. */
+  @VisibleForTesting
+  boolean isKept(Project.NameKey project) {
+    return stateByProject.getIfPresent(project) != null;
+  }
+
+  /**
+   * Scans a directory, reusing the previous state of the directories that didn't change. {@code
+   * root} is whether the directory is the repository itself.
+   */
+  private DirectoryState scan(
+      Path dir, DirectoryState previous, long now, boolean root, boolean statFiles)
+      throws IOException {
+    long modified = Files.getLastModifiedTime(dir).toMillis();
+    boolean racy = modified >= now - racyMillis;
+    if (previous == null || previous.racy() || previous.modified() != modified || statFiles) {
+      return list(dir, previous, modified, racy, now, root, statFiles);
+    }
+
+    boolean unchanged = true;
+    long totalSize = previous.filesSize();
+    int directories = 1;
+    Map<String, DirectoryState> dirs = new HashMap<>(previous.dirs().size() * 2);
+    for (Map.Entry<String, DirectoryState> e : previous.dirs().entrySet()) {
+      DirectoryState child;
+      try {
+        child = scan(dir.resolve(e.getKey()), e.getValue(), now, false, isLogs(root, e.getKey()));
+      } catch (NoSuchFileException notFound) {
+        // Deleted after the modification time of the directory was read.
+        return list(dir, previous, modified, racy, now, root, statFiles);
+      }
+      unchanged &= child == e.getValue();
+      totalSize += child.totalSize();
+      directories += child.directories();
+      dirs.put(e.getKey(), child);
+    }
+    return unchanged
+        ? previous
+        : new DirectoryState(modified, racy, previous.filesSize(), totalSize, directories, dirs);
+  }
+
+  private DirectoryState list(
+      Path dir,
+      DirectoryState previous,
+      long modified,
+      boolean racy,
+      long now,
+      boolean root,
+      boolean statFiles)
+      throws IOException {
+    long filesSize = 0;
+    long totalSize = 0;
+    int directories = 1;
+    Map<String, DirectoryState> dirs = new HashMap<>();
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException e) {
+          // Deleted concurrently, e.g. a lock file or a pruned loose object.
+          continue;
+        }
+        if (attrs.isDirectory()) {
+          String name = entry.getFileName().toString();
+          DirectoryState child;
+          try {
+            child =
+                scan(
+                    entry,
+                    previous != null ? previous.dirs().get(name) : null,
+                    now,
+                    false,
+                    statFiles || isLogs(root, name));
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          totalSize += child.totalSize();
+          directories += child.directories();
+          dirs.put(name, child);
+        } else if (attrs.isRegularFile()) {
+          filesSize += attrs.size();
+        }
+      }
+    }
+    return new DirectoryState(modified, racy, filesSize, totalSize + filesSize, directories, dirs);
+  }
+
+  /** Returns whether the directory is the {@code logs} directory of the repository. */
+  private static boolean isLogs(boolean root, String name) {
+    return root && name.equals(LOGS);
+  }
+}
@@ -22,7 +22,9 @@ import com.google.gerrit.server.config.ConfigResource;
 import com.google.gerrit.server.restapi.project.ListProjects;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
+import com.googlesource.gerrit.plugins.quota.GetQuota.NamespaceInfo;
 import com.googlesource.gerrit.plugins.quota.GetQuota.QuotaInfo;
+import java.util.HashMap;
 import java.util.Map;
 import org.kohsuke.args4j.Option;
 
@@ -31,6 +33,8 @@ public class ListQuotas implements RestReadView<ConfigResource> {
   private final GetQuota getQuota;
   private final Provider<ListProjects> listProjects;
   private String matchPrefix;
+  private int limit;
+  private int start;
 
   @Inject
   public ListQuotas(GetQuota getQuota, Provider<ListProjects> listProjects) {
@@ -47,14 +51,36 @@ public class ListQuotas implements RestReadView<ConfigResource> {
     this.matchPrefix = matchPrefix;
   }
 
+  @Option(
+      name = "--limit",
+      aliases = {"-n"},
+      metaVar = "CNT",
+      usage = "maximum number of projects to list")
+  public void setLimit(int limit) {
+    this.limit = limit;
+  }
+
+  @Option(
+      name = "--start",
+      aliases = {"-S"},
+      metaVar = "CNT",
+      usage = "number of projects to skip")
+  public void setStart(int start) {
+    this.start = start;
+  }
+
   @Override
   public Response<Map<String, QuotaInfo>> apply(ConfigResource resource) throws Exception {
     Map<String, QuotaInfo> result = Maps.newTreeMap();
     ListProjects lister = listProjects.get();
     lister.setMatchPrefix(matchPrefix);
+    lister.setLimit(limit);
+    lister.setStart(start);
+    // Projects of the same namespace share the namespace info, it is only computed once.
+    Map<String, NamespaceInfo> namespaces = new HashMap<>();
     for (String projectName : lister.apply().keySet()) {
       Project.NameKey n = Project.nameKey(projectName);
-      result.put(projectName, getQuota.getInfo(n));
+      result.put(projectName, getQuota.getInfo(n, namespaces));
     }
     return Response.ok(result);
   }
@@ -0,0 +1,94 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits for how long the tasks of a queue may stay parked before they are cancelled. The limit is
+ * enforced by {@link TaskQuotas} for the parked tasks, so this quota never applies to a task
+ * starting.
+ */
+public class MaxParkTimeForQueue implements TaskQuota {
+  public static final Logger log = LoggerFactory.getLogger(MaxParkTimeForQueue.class);
+  public static final String KEY = "maxParkTimeForQueue";
+  // 5min SSH-Interactive-Worker
+  public static final Pattern CONFIG_PATTERN = Pattern.compile("(\\d+\\s*[a-zA-Z]*)\\s+(.+)");
+
+  private final QuotaSection quotaSection;
+  private final String queue;
+  private final long maxParkNanos;
+
+  public MaxParkTimeForQueue(QuotaSection quotaSection, String queue, long maxParkNanos) {
+    this.quotaSection = quotaSection;
+    this.queue = queue;
+    this.maxParkNanos = maxParkNanos;
+  }
+
+  public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (matcher.matches()) {
+      long maxParkNanos;
+      try {
+        maxParkNanos = ConfigUtil.getTimeUnit(matcher.group(1), -1, TimeUnit.NANOSECONDS);
+      } catch (IllegalArgumentException e) {
+        maxParkNanos = -1;
+      }
+      if (maxParkNanos > 0) {
+        return Optional.of(new MaxParkTimeForQueue(qs, matcher.group(2), maxParkNanos));
+      }
+    }
+    log.error("Invalid configuration entry [{}]", cfg);
+    return Optional.empty();
+  }
+
+  /** Returns the maximum park time if it applies to the task, or 0. */
+  public long getMaxParkNanos(WorkQueue.Task<?> task) {
+    return TaskDescriptor.get(task).queueName().equals(queue) ? maxParkNanos : 0;
+  }
+
+  @Override
+  public Optional<String> queue() {
+    return Optional.of(queue);
+  }
+
+  @Override
+  public boolean isApplicable(WorkQueue.Task<?> task) {
+    return false;
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    return true;
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {}
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": queue [%s], max park time [%d ms], namespace [%s]"
+            .formatted(
+                queue, TimeUnit.NANOSECONDS.toMillis(maxParkNanos), quotaSection.getNamespace());
+  }
+}
@@ -14,9 +14,7 @@
 
 package com.googlesource.gerrit.plugins.quota;
 
-import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.project.CreateProjectArgs;
-import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.validators.ProjectCreationValidationListener;
 import com.google.gerrit.server.validators.ValidationException;
 import com.google.inject.Inject;
@@ -25,12 +23,13 @@ import com.google.inject.Singleton;
 @Singleton
 public class MaxRepositoriesQuotaValidator implements ProjectCreationValidationListener {
   private final QuotaFinder quotaFinder;
-  private final ProjectCache projectCache;
+  private final NamespaceProjectCounts namespaceProjectCounts;
 
   @Inject
-  MaxRepositoriesQuotaValidator(QuotaFinder quotaFinder, ProjectCache projectCache) {
+  MaxRepositoriesQuotaValidator(
+      QuotaFinder quotaFinder, NamespaceProjectCounts namespaceProjectCounts) {
     this.quotaFinder = quotaFinder;
-    this.projectCache = projectCache;
+    this.namespaceProjectCounts = namespaceProjectCounts;
   }
 
   @Override
@@ -43,12 +42,7 @@ public class MaxRepositoriesQuotaValidator implements ProjectCreationValidationL
     if (quotaSection != null) {
       Integer maxProjects = quotaSection.getMaxProjects();
       if (maxProjects != null) {
-        int count = 0;
-        for (Project.NameKey p : projectCache.all()) {
-          if (quotaSection.matches(p)) {
-            count++;
-          }
-        }
+        int count = namespaceProjectCounts.getCount(quotaSection);
         if (count >= maxProjects) {
           StringBuilder msg = new StringBuilder();
           msg.append("Project cannot be created because a quota for the namespace '");
@@ -23,35 +23,36 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Ordering;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.cache.PersistentCacheBinding;
+import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.git.GitRepositoryManager;
-import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.quota.QuotaEnforcer;
 import com.google.gerrit.server.quota.QuotaRequestContext;
 import com.google.gerrit.server.quota.QuotaResponse;
 import com.google.inject.Inject;
 import com.google.inject.Module;
 import com.google.inject.Singleton;
+import com.google.inject.internal.UniqueAnnotations;
 import com.google.inject.name.Named;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.FileVisitResult;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.SimpleFileVisitor;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
-import org.apache.commons.lang3.mutable.MutableLong;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.internal.storage.file.GC;
@@ -66,30 +67,47 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
 
   static final String REPO_SIZE_CACHE = "repo_size";
 
-  static Module module() {
+  static Module module(Duration refreshAfterWrite) {
     return new CacheModule() {
       @Override
       protected void configure() {
-        persist(REPO_SIZE_CACHE, Project.NameKey.class, AtomicLong.class)
-            .loader(Loader.class)
-            .expireAfterWrite(Duration.ofDays(1));
+        PersistentCacheBinding<Project.NameKey, AtomicLong> repoSizeCache =
+            persist(REPO_SIZE_CACHE, Project.NameKey.class, AtomicLong.class)
+                .loader(Loader.class)
+                .expireAfterWrite(Duration.ofDays(1));
+        if (!refreshAfterWrite.isZero()) {
+          repoSizeCache.refreshAfterWrite(refreshAfterWrite);
+        }
         bind(RepoSizeCache.class).to(MaxRepositorySizeQuota.class);
+        bind(RepoSizeSnapshot.class).to(NamespaceSizeIndex.class);
+        bind(LifecycleListener.class).annotatedWith(UniqueAnnotations.create()).to(Loader.class);
       }
     };
   }
 
   protected final LoadingCache<Project.NameKey, AtomicLong> cache;
   private final QuotaFinder quotaFinder;
-  private final ProjectCache projectCache;
+  private final NamespaceSizeIndex namespaceSizeIndex;
+  private final RepoSizeReservations reservations;
+
+  /**
+   * The reservation last granted on this thread. Gerrit refills the tokens of a request on the
+   * thread that requested them, e.g. when another quota enforcer refused the request, so a refill
+   * releases exactly this reservation, and not one of a concurrent push of the same size.
+   */
+  private final ThreadLocal<RepoSizeReservations.Reservation> lastReservation =
+      new ThreadLocal<>();
 
   @Inject
   protected MaxRepositorySizeQuota(
       QuotaFinder quotaFinder,
       @Named(REPO_SIZE_CACHE) LoadingCache<Project.NameKey, AtomicLong> cache,
-      ProjectCache projectCache) {
+      NamespaceSizeIndex namespaceSizeIndex,
+      RepoSizeReservations reservations) {
     this.quotaFinder = quotaFinder;
     this.cache = cache;
-    this.projectCache = projectCache;
+    this.namespaceSizeIndex = namespaceSizeIndex;
+    this.reservations = reservations;
   }
 
   protected Optional<Long> getMaxPackSize(Project.NameKey project) {
@@ -99,16 +117,29 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
   protected Optional<Long> getMaxPackSize(
       Project.NameKey project, boolean requireProjectExistence) {
     List<Long> maxPackCandidates = new ArrayList<>();
-    getMaxPackSize(quotaFinder.firstMatching(project), project, requireProjectExistence)
-        .ifPresent(maxPackCandidates::add);
-    getMaxPackSize(quotaFinder.getGlobalNamespacedQuota(), project, requireProjectExistence)
-        .ifPresent(maxPackCandidates::add);
+    for (QuotaSection quotaSection : getQuotaSections(project)) {
+      getMaxPackSize(quotaSection, project, requireProjectExistence)
+          .ifPresent(maxPackCandidates::add);
+    }
 
     return maxPackCandidates.isEmpty()
         ? Optional.empty()
         : Optional.of(Collections.min(maxPackCandidates));
   }
 
+  private List<QuotaSection> getQuotaSections(Project.NameKey project) {
+    List<QuotaSection> quotaSections = new ArrayList<>(2);
+    QuotaSection namespaced = quotaFinder.firstMatching(project);
+    if (namespaced != null) {
+      quotaSections.add(namespaced);
+    }
+    QuotaSection global = quotaFinder.getGlobalNamespacedQuota();
+    if (global != null) {
+      quotaSections.add(global);
+    }
+    return quotaSections;
+  }
+
   protected Optional<Long> getMaxPackSize(
       QuotaSection quotaSection, Project.NameKey project, boolean requireProjectExistence) {
     if (quotaSection == null) {
@@ -133,12 +164,8 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
 
       Long maxPackSize2 = null;
       if (maxTotalSize != null) {
-        long totalSize = 0;
-        for (Project.NameKey p : projectCache.all()) {
-          if (quotaSection.matches(p)) {
-            totalSize += cache.get(p).get();
-          }
-        }
+        reservations.commitExpired(project);
+        long totalSize = namespaceSizeIndex.getTotalSize(quotaSection);
         maxPackSize2 = Math.max(0, maxTotalSize - totalSize);
       }
 
@@ -152,7 +179,7 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
 
   /**
    * Returns the current repository size for the given project, in bytes, retrieved from the size
-   * cache.
+   * cache, including the bytes reserved for pushes that are not part of the cached size yet.
    *
    * <p>This method enforces strict loading semantics: if the size cannot be computed or retrieved,
    * it will propagate the underlying failure via {@link ExecutionException} or {@link
@@ -160,7 +187,9 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
    */
   private long currentSizeStrict(Project.NameKey project)
       throws ExecutionException, UncheckedExecutionException {
-    return cache.get(project).get();
+    AtomicLong size = cache.get(project);
+    long pending = reservations.getPending(project);
+    return size.get() + pending;
   }
 
   /**
@@ -183,44 +212,74 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
   }
 
   @Singleton
-  static class Loader extends CacheLoader<Project.NameKey, AtomicLong> {
+  static class Loader extends CacheLoader<Project.NameKey, AtomicLong>
+      implements LifecycleListener {
 
     private final GitRepositoryManager gitManager;
+    private final NamespaceSizeIndex namespaceSizeIndex;
+    private final RepoSizeRefresher refresher;
+    private final RepoSizeReservations reservations;
+    private final IncrementalDiskUsage incrementalDiskUsage;
     private final boolean useGitObjectCount;
+    private final ParallelDiskUsageWalker diskUsageWalker;
 
     @Inject
     Loader(
-        GitRepositoryManager gitManager, PluginConfigFactory cfg, @PluginName String pluginName) {
+        GitRepositoryManager gitManager,
+        NamespaceSizeIndex namespaceSizeIndex,
+        RepoSizeRefresher refresher,
+        RepoSizeReservations reservations,
+        IncrementalDiskUsage incrementalDiskUsage,
+        PluginConfigFactory cfg,
+        @PluginName String pluginName) {
       this.gitManager = gitManager;
-      this.useGitObjectCount =
-          cfg.getFromGerritConfig(pluginName).getBoolean("useGitObjectCount", false);
+      this.namespaceSizeIndex = namespaceSizeIndex;
+      this.refresher = refresher;
+      this.reservations = reservations;
+      PluginConfig pc = cfg.getFromGerritConfig(pluginName);
+      this.useGitObjectCount = pc.getBoolean("useGitObjectCount", false);
+      this.incrementalDiskUsage =
+          pc.getBoolean("incrementalDiskUsage", false) ? incrementalDiskUsage : null;
+      int parallelism = pc.getInt("diskUsageParallelism", 1);
+      this.diskUsageWalker = parallelism > 1 ? new ParallelDiskUsageWalker(parallelism) : null;
+    }
+
+    @Override
+    public void start() {}
+
+    @Override
+    public void stop() {
+      if (diskUsageWalker != null) {
+        diskUsageWalker.shutdown();
+      }
     }
 
     @Override
     public AtomicLong load(Project.NameKey project) throws IOException {
+      long start = System.nanoTime();
       try (Repository git = gitManager.openRepository(project)) {
-        if (useGitObjectCount) {
-          return new AtomicLong(getDiskUsageByGitObjectCount(git));
-        }
-        return new AtomicLong(getDiskUsage(git.getDirectory()));
+        long size =
+            useGitObjectCount
+                ? getDiskUsageByGitObjectCount(git)
+                : getDiskUsage(project, git.getDirectory());
+        namespaceSizeIndex.set(project, size + reservations.onSizeComputed(project, start));
+        return new AtomicLong(size);
       }
     }
 
-    private static long getDiskUsage(File dir) throws IOException {
-      final MutableLong size = new MutableLong();
-      Files.walkFileTree(
-          dir.toPath(),
-          new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
-                throws IOException {
-              if (attrs.isRegularFile()) {
-                size.add(attrs.size());
-              }
-              return FileVisitResult.CONTINUE;
-            }
-          });
-      return size.longValue();
+    @Override
+    public ListenableFuture<AtomicLong> reload(Project.NameKey project, AtomicLong oldValue) {
+      return refresher.reload(project, () -> load(project));
+    }
+
+    private long getDiskUsage(Project.NameKey project, File dir) throws IOException {
+      if (incrementalDiskUsage != null) {
+        return incrementalDiskUsage.getDiskUsage(project, dir.toPath());
+      }
+      if (diskUsageWalker != null) {
+        return diskUsageWalker.getDiskUsage(dir.toPath());
+      }
+      return ParallelDiskUsageWalker.getDiskUsageSequentially(dir.toPath());
     }
 
     private long getDiskUsageByGitObjectCount(Repository repo) throws IOException {
@@ -239,15 +298,24 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
     }
   }
 
+  @Override
+  public OptionalLong getIfPresent(Project.NameKey p) {
+    AtomicLong size = cache.getIfPresent(p);
+    return size != null ? OptionalLong.of(size.get()) : OptionalLong.empty();
+  }
+
   @Override
   public void evict(Project.NameKey p) {
     cache.invalidate(p);
+    reservations.forget(p);
+    namespaceSizeIndex.remove(p);
   }
 
   @Override
   public void set(Project.NameKey p, long size) {
     try {
       cache.get(p).set(size);
+      namespaceSizeIndex.set(p, size + reservations.onSizeComputed(p, System.nanoTime()));
     } catch (ExecutionException e) {
       log.warn("Error setting the size of project {}", p, e);
     }
@@ -274,8 +342,21 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
     ctx.project()
         .ifPresent(
             p -> {
+              RepoSizeReservations.Reservation reservation = lastReservation.get();
+              lastReservation.remove();
+              if (reservation != null
+                  && reservation.project().equals(p)
+                  && reservation.bytes() == numTokens
+                  && reservations.release(reservation)) {
+                namespaceSizeIndex.add(p, -numTokens, 0);
+                return;
+              }
               try {
-                cache.get(p).getAndUpdate(current -> current > numTokens ? current - numTokens : 0);
+                AtomicLong size = cache.get(p);
+                long before =
+                    size.getAndUpdate(current -> current > numTokens ? current - numTokens : 0);
+                long after = before > numTokens ? before - numTokens : 0;
+                namespaceSizeIndex.add(p, after - before, after);
               } catch (ExecutionException e) {
                 log.warn("Refilling [{}] bytes for repository {} failed", numTokens, p, e);
               }
@@ -306,16 +387,7 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
       QuotaRequestContext ctx, long requested, Long availableSpace, boolean deduct) {
     Project.NameKey r = ctx.project().get();
     if (availableSpace >= requested) {
-      if (deduct) {
-        try {
-          cache.get(r).getAndAdd(requested);
-        } catch (ExecutionException e) {
-          String msg = String.format("Quota request [%d] failed for repository %s", requested, r);
-          log.warn(msg, e);
-          return error(msg);
-        }
-      }
-      return ok();
+      return deduct ? reserve(r, requested) : ok();
     }
 
     return error(
@@ -323,4 +395,49 @@ public class MaxRepositorySizeQuota implements QuotaEnforcer, RepoSizeCache {
             "Requested space [%d] is bigger then available [%d] for repository %s",
             requested, availableSpace, r));
   }
+
+  /**
+   * Reserves the requested bytes for the repository, atomically checking them against the
+   * repository and namespace limits, which may have been used up by concurrent pushes since the
+   * available space was computed.
+   */
+  private QuotaResponse reserve(Project.NameKey project, long requested) {
+    long maxPending = Long.MAX_VALUE;
+    Map<QuotaSection, Long> maxTotalSizeBySection = new HashMap<>();
+    try {
+      long size = cache.get(project).get();
+      for (QuotaSection quotaSection : getQuotaSections(project)) {
+        Long maxRepoSize = quotaSection.getMaxRepoSize();
+        if (maxRepoSize != null) {
+          maxPending = Math.min(maxPending, maxRepoSize - size);
+        }
+        Long maxTotalSize = quotaSection.getMaxTotalSize();
+        if (maxTotalSize != null) {
+          namespaceSizeIndex.getTotalSize(quotaSection);
+          maxTotalSizeBySection.put(quotaSection, maxTotalSize);
+        }
+      }
+    } catch (ExecutionException e) {
+      String msg = String.format("Quota request [%d] failed for repository %s", requested, project);
+      log.warn(msg, e);
+      return error(msg);
+    }
+
+    if (!namespaceSizeIndex.tryAdd(project, requested, maxTotalSizeBySection)) {
+      return error(
+          String.format(
+              "Requested space [%d] exceeds the total size quota of the namespace of repository %s",
+              requested, project));
+    }
+    RepoSizeReservations.Reservation reservation =
+        reservations.tryReserve(project, requested, maxPending);
+    if (reservation == null) {
+      namespaceSizeIndex.add(project, -requested, 0);
+      return error(
+          String.format(
+              "Requested space [%d] exceeds the size quota of repository %s", requested, project));
+    }
+    lastReservation.set(reservation);
+    return ok();
+  }
 }
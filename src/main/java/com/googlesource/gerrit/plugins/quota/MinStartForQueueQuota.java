@@ -14,18 +14,32 @@
 
 package com.googlesource.gerrit.plugins.quota;
 
+import com.google.gerrit.server.git.WorkQueue;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class MinStartForQueueQuota {
+/**
+ * Reserves threads of a queue for the tasks of a namespace. The reservation is enforced by {@link
+ * QueueManager} once it is {@link #register() registered}, so this quota never applies to a task
+ * by itself.
+ */
+public class MinStartForQueueQuota implements TaskQuota {
   public static final Logger log = LoggerFactory.getLogger(MinStartForQueueQuota.class);
   public static final String KEY = "minStartForQueue";
   // 10 SSH-Interactive-Worker
   public static final Pattern CONFIG_PATTERN = Pattern.compile("(\\d+)\\s+(.+)");
 
+  private final String queue;
+  private final QueueManager.Reservation reservation;
+
+  public MinStartForQueueQuota(String queue, QueueManager.Reservation reservation) {
+    this.queue = queue;
+    this.reservation = reservation;
+  }
+
   public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
     Matcher matcher = CONFIG_PATTERN.matcher(cfg);
 
@@ -37,19 +51,46 @@ public class MinStartForQueueQuota {
     if (matcher.matches()) {
       int reservation = Integer.parseInt(matcher.group(1));
       String queue = matcher.group(2);
-      QueueManager.registerReservation(
-          queue,
-          new QueueManager.Reservation(
-              reservation,
-              task -> {
-                return task.getQueueName().equalsIgnoreCase(queue)
-                    && TaskQuotas.estimateProject(task).map(qs::matches).orElse(false);
-              },
-              qs.getNamespace()));
-    } else {
-      log.error("Invalid configuration entry [{}]", cfg);
+      return Optional.of(
+          new MinStartForQueueQuota(
+              queue,
+              new QueueManager.Reservation(
+                  reservation,
+                  task -> {
+                    TaskDescriptor descriptor = TaskDescriptor.get(task);
+                    return descriptor.queueName().equalsIgnoreCase(queue)
+                        && descriptor.project().map(qs::matches).orElse(false);
+                  },
+                  qs.getNamespace())));
     }
 
+    log.error("Invalid configuration entry [{}]", cfg);
     return Optional.empty();
   }
+
+  public void register() {
+    QueueManager.registerReservation(queue, reservation);
+  }
+
+  public String getQueue() {
+    return queue;
+  }
+
+  @Override
+  public Optional<String> managedQueue() {
+    return Optional.of(queue);
+  }
+
+  @Override
+  public boolean isApplicable(WorkQueue.Task<?> task) {
+    return false;
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    return true;
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {}
 }
@@ -27,6 +27,7 @@ import com.google.gerrit.extensions.annotations.Exports;
 import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.events.GarbageCollectorListener;
 import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.extensions.events.NewProjectCreatedListener;
 import com.google.gerrit.extensions.events.ProjectDeletedListener;
 import com.google.gerrit.extensions.registration.DynamicMap;
 import com.google.gerrit.extensions.registration.DynamicSet;
@@ -34,6 +35,7 @@ import com.google.gerrit.extensions.restapi.RestApiModule;
 import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.IdentifiedUser.GenericFactory;
 import com.google.gerrit.server.cache.CacheModule;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.PluginConfig;
 import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gerrit.server.git.WorkQueue;
@@ -50,7 +52,9 @@ import com.google.inject.name.Named;
 import com.google.inject.name.Names;
 import com.googlesource.gerrit.plugins.quota.AccountLimitsConfig.RateLimit;
 import com.googlesource.gerrit.plugins.quota.AccountLimitsConfig.Type;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 class Module extends CacheModule {
@@ -59,6 +63,7 @@ class Module extends CacheModule {
   static final String CACHE_NAME_REMOTEHOST = "rate_limits_by_ip";
 
   private final String uploadpackLimitExceededMsg;
+  private final Duration repoSizeRefreshAfterWrite;
 
   @Inject
   Module(PluginConfigFactory plugincf, @PluginName String pluginName) {
@@ -67,6 +72,10 @@ class Module extends CacheModule {
         new RateMsgHelper(
                 Type.UPLOADPACK, pc.getString(RateMsgHelper.UPLOADPACK_CONFIGURABLE_MSG_ANNOTATION))
             .getMessageFormatMsg();
+    repoSizeRefreshAfterWrite =
+        Duration.ofSeconds(
+            ConfigUtil.getTimeUnit(
+                pc.getString("repoSizeRefreshAfterWrite", "0"), 0, TimeUnit.SECONDS));
   }
 
   @Override
@@ -75,10 +84,11 @@ class Module extends CacheModule {
         .to(MaxRepositoriesQuotaValidator.class);
     DynamicSet.bind(binder(), QuotaEnforcer.class).to(MaxRepositorySizeQuota.class);
     DynamicSet.bind(binder(), ProjectDeletedListener.class).to(DeletionListener.class);
+    DynamicSet.bind(binder(), NewProjectCreatedListener.class).to(CreationListener.class);
     DynamicSet.bind(binder(), GarbageCollectorListener.class).to(GCListener.class);
     DynamicSet.setOf(binder(), UsageDataEventCreator.class);
     DynamicSet.bind(binder(), UsageDataEventCreator.class).to(RepoSizeEventCreator.class);
-    install(MaxRepositorySizeQuota.module());
+    install(MaxRepositorySizeQuota.module(repoSizeRefreshAfterWrite));
     install(
         new RestApiModule() {
           @Override
@@ -99,8 +109,16 @@ class Module extends CacheModule {
     bind(LifecycleListener.class)
         .annotatedWith(UniqueAnnotations.create())
         .to(TaskQuotaLogFile.class);
+    bind(LifecycleListener.class)
+        .annotatedWith(UniqueAnnotations.create())
+        .to(RepoSizeWarmup.class);
+    bind(LifecycleListener.class)
+        .annotatedWith(UniqueAnnotations.create())
+        .to(RepoSizeRefresher.class);
 
     DynamicSet.bind(binder(), UploadValidationListener.class).to(RateLimitUploadListener.class);
+    DynamicSet.bind(binder(), UploadValidationListener.class).to(RejectedTaskUploadListener.class);
+    bind(UserGroups.class).to(AccountUserGroups.class);
     bindConstant()
         .annotatedWith(Names.named(RateMsgHelper.UPLOADPACK_CONFIGURABLE_MSG_ANNOTATION))
         .to(uploadpackLimitExceededMsg);
@@ -15,13 +15,27 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.entities.Project;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 public class Namespace {
 
   private final String namespace;
+  private final String prefix;
+  private final Pattern pattern;
 
   Namespace(String namespace) {
     this.namespace = namespace;
+    if (namespace.endsWith("/*")) {
+      this.prefix = namespace.substring(0, namespace.length() - 1);
+      this.pattern = null;
+    } else if (namespace.startsWith("^")) {
+      this.prefix = null;
+      this.pattern = compile(namespace.substring(1));
+    } else {
+      this.prefix = null;
+      this.pattern = null;
+    }
   }
 
   public String get() {
@@ -30,12 +44,36 @@ public class Namespace {
 
   public boolean matches(Project.NameKey project) {
     String p = project.get();
-    if (namespace.endsWith("/*")) {
-      return p.startsWith(namespace.substring(0, namespace.length() - 1));
+    if (prefix != null) {
+      return p.startsWith(prefix);
     } else if (namespace.startsWith("^")) {
-      return p.matches(namespace.substring(1));
+      return pattern != null && pattern.matcher(p).matches();
     } else {
       return p.equals(namespace);
     }
   }
+
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof Namespace n && namespace.equals(n.namespace);
+  }
+
+  @Override
+  public int hashCode() {
+    return namespace.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return namespace;
+  }
+
+  private static Pattern compile(String regex) {
+    try {
+      return Pattern.compile(regex);
+    } catch (PatternSyntaxException e) {
+      // Logged when the quota policy is compiled; an invalid pattern matches no project.
+      return null;
+    }
+  }
 }
@@ -0,0 +1,196 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the first of a list of quota namespaces that matches a project name.
+ *
+ * <p>Exact names, {@code prefix/*} and {@code prefix/?/*} namespaces are stored in a trie of
+ * project name path segments, so that the lookup only visits the segments of the project name
+ * instead of every namespace. Precompiled regular expressions are stored at the trie node of their
+ * literal leading path, e.g. {@code team/.*-test} at {@code team/}, and are only evaluated for
+ * projects below that path. Namespaces are numbered in the order they are added, and the lowest
+ * numbered match wins, as if the namespaces were checked one after the other.
+ */
+class NamespaceIndex<T> {
+  private static final int NONE = Integer.MAX_VALUE;
+  private static final String REGEX_META = "\\.[]{}()*+?^$|";
+
+  private final Node root = new Node();
+  private final List<T> values = new ArrayList<>();
+
+  private static class Node {
+    final Map<String, Node> children = new HashMap<>();
+    int exact = NONE;
+    int prefix = NONE;
+    int forEach = NONE;
+    final List<RegexEntry> regexes = new ArrayList<>();
+  }
+
+  private record RegexEntry(int ordinal, Pattern pattern) {}
+
+  /** Adds a namespace matching exactly one project name. */
+  void addExact(String name, T value) {
+    Node node = insert(name);
+    node.exact = Math.min(node.exact, add(value));
+  }
+
+  /**
+   * Adds a namespace matching all project names starting with {@code prefix}, that must be empty
+   * or end with a slash.
+   */
+  void addPrefix(String prefix, T value) {
+    Node node = insertPrefix(prefix);
+    node.prefix = Math.min(node.prefix, add(value));
+  }
+
+  /**
+   * Adds a namespace matching the project names that continue with a non-empty path segment and a
+   * slash after {@code prefix}, that must be empty or end with a slash.
+   */
+  void addForEach(String prefix, T value) {
+    Node node = insertPrefix(prefix);
+    node.forEach = Math.min(node.forEach, add(value));
+  }
+
+  /** Adds a namespace matching all project names that match {@code pattern}. */
+  void addRegex(Pattern pattern, T value) {
+    insertPrefix(literalPrefix(pattern.pattern())).regexes.add(new RegexEntry(add(value), pattern));
+  }
+
+  /** Returns the value of the first namespace matching the project name, or null. */
+  T first(String project) {
+    int best = NONE;
+    Node node = root;
+    int start = 0;
+    List<List<RegexEntry>> regexes = new ArrayList<>();
+    while (node != null) {
+      if (!node.regexes.isEmpty()) {
+        regexes.add(node.regexes);
+      }
+      int slash = project.indexOf('/', start);
+      if (slash > start) {
+        best = Math.min(best, node.forEach);
+      }
+      if (slash < 0) {
+        Node leaf = node.children.get(project.substring(start));
+        if (leaf != null) {
+          best = Math.min(best, leaf.exact);
+        }
+        break;
+      }
+      node = node.children.get(project.substring(start, slash));
+      if (node != null) {
+        best = Math.min(best, node.prefix);
+      }
+      start = slash + 1;
+    }
+
+    for (List<RegexEntry> candidates : regexes) {
+      for (RegexEntry regex : candidates) {
+        if (regex.ordinal() > best) {
+          break;
+        }
+        if (regex.pattern().matcher(project).matches()) {
+          best = regex.ordinal();
+          break;
+        }
+      }
+    }
+    return best != NONE ? values.get(best) : null;
+  }
+
+  /**
+   * Calls the action with the value of every namespace matching the project name, not only the
+   * first one. A namespace that was added more than once is only visited with its first value.
+   */
+  void forEachMatching(String project, Consumer<T> action) {
+    Node node = root;
+    int start = 0;
+    while (node != null) {
+      accept(node.prefix, action);
+      for (RegexEntry regex : node.regexes) {
+        if (regex.pattern().matcher(project).matches()) {
+          action.accept(values.get(regex.ordinal()));
+        }
+      }
+      int slash = project.indexOf('/', start);
+      if (slash > start) {
+        accept(node.forEach, action);
+      }
+      if (slash < 0) {
+        Node leaf = node.children.get(project.substring(start));
+        if (leaf != null) {
+          accept(leaf.exact, action);
+        }
+        break;
+      }
+      node = node.children.get(project.substring(start, slash));
+      start = slash + 1;
+    }
+  }
+
+  private void accept(int ordinal, Consumer<T> action) {
+    if (ordinal != NONE) {
+      action.accept(values.get(ordinal));
+    }
+  }
+
+  private int add(T value) {
+    values.add(value);
+    return values.size() - 1;
+  }
+
+  /**
+   * Returns the longest path ending with a slash that all strings matching the regular expression
+   * start with, or an empty string if it can't be determined.
+   */
+  static String literalPrefix(String regex) {
+    if (regex.indexOf('|') >= 0) {
+      return "";
+    }
+    int end = 0;
+    while (end < regex.length() && REGEX_META.indexOf(regex.charAt(end)) < 0) {
+      end++;
+    }
+    if (end < regex.length() && "*+?{".indexOf(regex.charAt(end)) >= 0) {
+      // The quantifier applies to the last literal character.
+      end--;
+    }
+    return regex.substring(0, regex.lastIndexOf('/', end - 1) + 1);
+  }
+
+  private Node insertPrefix(String prefix) {
+    return prefix.isEmpty() ? root : insert(prefix.substring(0, prefix.length() - 1));
+  }
+
+  private Node insert(String path) {
+    Node node = root;
+    int start = 0;
+    int slash;
+    while ((slash = path.indexOf('/', start)) >= 0) {
+      node = node.children.computeIfAbsent(path.substring(start, slash), s -> new Node());
+      start = slash + 1;
+    }
+    return node.children.computeIfAbsent(path.substring(start), s -> new Node());
+  }
+}
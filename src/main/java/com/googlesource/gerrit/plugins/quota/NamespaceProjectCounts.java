@@ -0,0 +1,114 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps a running count of the projects per resolved quota namespace.
+ *
+ * <p>A namespace count is computed once, on first use, by counting the matching projects.
+ * Afterwards it is kept up to date by the project creation and deletion events, so that checking
+ * {@code maxProjects} does not need to iterate over all projects.
+ */
+@Singleton
+public class NamespaceProjectCounts {
+  private final ProjectCache projectCache;
+  private final Set<Project.NameKey> counted = ConcurrentHashMap.newKeySet();
+  private final Map<String, Count> countByNamespace = new ConcurrentHashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private record Count(QuotaSection section, AtomicInteger projects) {}
+
+  @Inject
+  NamespaceProjectCounts(ProjectCache projectCache) {
+    this.projectCache = projectCache;
+  }
+
+  /** Returns the number of projects matching the given quota section. */
+  public int getCount(QuotaSection section) {
+    String key = key(section);
+    Count count = countByNamespace.get(key);
+    if (count != null) {
+      return count.projects().get();
+    }
+
+    lock.writeLock().lock();
+    try {
+      count = countByNamespace.get(key);
+      if (count == null) {
+        count = new Count(section, new AtomicInteger());
+        for (Project.NameKey p : projectCache.all()) {
+          if (counted.add(p)) {
+            // Created after the other namespaces were counted, but not reported yet.
+            addToCounts(p, 1);
+          }
+          if (section.matches(p)) {
+            count.projects().incrementAndGet();
+          }
+        }
+        countByNamespace.put(key, count);
+      }
+      return count.projects().get();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Counts a new project, unless it was already counted. */
+  public void add(Project.NameKey project) {
+    lock.readLock().lock();
+    try {
+      if (counted.add(project)) {
+        addToCounts(project, 1);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Stops counting a deleted project. */
+  public void remove(Project.NameKey project) {
+    lock.readLock().lock();
+    try {
+      if (counted.remove(project)) {
+        addToCounts(project, -1);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void addToCounts(Project.NameKey project, int delta) {
+    for (Count count : countByNamespace.values()) {
+      if (count.section().matches(project)) {
+        count.projects().addAndGet(delta);
+      }
+    }
+  }
+
+  private static String key(QuotaSection section) {
+    return section.section() + "." + section.getNamespace();
+  }
+}
@@ -0,0 +1,271 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.googlesource.gerrit.plugins.quota.MaxRepositorySizeQuota.REPO_SIZE_CACHE;
+
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Keeps a running total of the repository sizes per resolved quota namespace.
+ *
+ * <p>A namespace total is computed once, on first use, by summing the sizes of all matching
+ * projects. Afterwards it is kept up to date by the hooks that change the {@code repo_size} cache,
+ * so that checking {@code maxTotalSize} does not need to iterate over all projects. The sizes
+ * include the bytes reserved by {@link RepoSizeReservations}.
+ *
+ * <p>The totals that a repository counts towards are looked up in a {@link NamespaceIndex}. They
+ * are kept for one {@code quota.config} only, and are dropped and computed again once the sections
+ * of a new config are used.
+ */
+@Singleton
+public class NamespaceSizeIndex implements RepoSizeSnapshot {
+  private final ProjectCache projectCache;
+  private final Provider<LoadingCache<Project.NameKey, AtomicLong>> cache;
+  private final RepoSizeReservations reservations;
+  private final Map<Project.NameKey, Long> sizeByProject = new ConcurrentHashMap<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile Totals totals = new Totals(null);
+
+  private record Total(QuotaSection section, AtomicLong size) {}
+
+  /**
+   * The totals of the sections of one config. The index is only changed while holding the write
+   * lock, and read while holding the read lock.
+   */
+  private static class Totals {
+    final Config cfg;
+    final Map<String, Total> byKey = new ConcurrentHashMap<>();
+    final NamespaceIndex<Total> index = new NamespaceIndex<>();
+    final List<Total> global = new ArrayList<>();
+
+    Totals(Config cfg) {
+      this.cfg = cfg;
+    }
+
+    void add(String key, Total total) {
+      byKey.put(key, total);
+      if (total.section() instanceof GlobalQuotaSection) {
+        global.add(total);
+        return;
+      }
+      String n = total.section().getNamespace();
+      if (n.endsWith("/*")) {
+        index.addPrefix(n.substring(0, n.length() - 1), total);
+      } else if (n.startsWith("^")) {
+        try {
+          index.addRegex(Pattern.compile(n.substring(1)), total);
+        } catch (PatternSyntaxException e) {
+          // Logged when the quota policy is compiled; an invalid pattern matches no project.
+        }
+      } else {
+        index.addExact(n, total);
+      }
+    }
+
+    void forEachMatching(Project.NameKey project, Consumer<Total> action) {
+      global.forEach(action);
+      index.forEachMatching(project.get(), action);
+    }
+  }
+
+  @Inject
+  NamespaceSizeIndex(
+      ProjectCache projectCache,
+      @Named(REPO_SIZE_CACHE) Provider<LoadingCache<Project.NameKey, AtomicLong>> cache,
+      RepoSizeReservations reservations) {
+    this.projectCache = projectCache;
+    this.cache = cache;
+    this.reservations = reservations;
+  }
+
+  /** Returns the total size of all repositories matching the given quota section. */
+  public long getTotalSize(QuotaSection section) throws ExecutionException {
+    String key = key(section);
+    Totals current = totals;
+    Total total = current.cfg == section.cfg() ? current.byKey.get(key) : null;
+    if (total != null) {
+      return total.size().get();
+    }
+
+    // Load the sizes outside of the lock: cache loads report back to this index.
+    Map<Project.NameKey, Long> loaded = new HashMap<>();
+    for (Project.NameKey p : projectCache.all()) {
+      if (section.matches(p)) {
+        // Expired reservations are committed into the cached size before it is read.
+        long pending = reservations.getPending(p);
+        loaded.put(p, cache.get().get(p).get() + pending);
+      }
+    }
+
+    lock.writeLock().lock();
+    try {
+      if (totals.cfg != section.cfg()) {
+        totals = new Totals(section.cfg());
+      }
+      total = totals.byKey.get(key);
+      if (total == null) {
+        long size = 0;
+        for (Map.Entry<Project.NameKey, Long> e : loaded.entrySet()) {
+          size += sizeByProject.computeIfAbsent(e.getKey(), p -> e.getValue());
+        }
+        total = new Total(section, new AtomicLong(size));
+        totals.add(key, total);
+      }
+      return total.size().get();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the size of the repository, including its reserved bytes, if it was measured, updated
+   * or counted in a namespace total since the plugin started.
+   */
+  @Override
+  public OptionalLong getIfKnown(Project.NameKey project) {
+    Long size = sizeByProject.get(project);
+    return size != null ? OptionalLong.of(size) : OptionalLong.empty();
+  }
+
+  /** Records the absolute size of a repository, e.g. after loading or a GC. */
+  public void set(Project.NameKey project, long size) {
+    update(project, size, false);
+  }
+
+  /** Records a change of a repository size by {@code delta} bytes. */
+  public void add(Project.NameKey project, long delta, long sizeAfter) {
+    lock.readLock().lock();
+    try {
+      sizeByProject.compute(
+          project,
+          (p, current) -> {
+            if (current == null) {
+              addToTotals(p, sizeAfter);
+              return sizeAfter;
+            }
+            addToTotals(p, delta);
+            return current + delta;
+          });
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Adds {@code delta} bytes to a repository unless this would make the total size of one of the
+   * given quota sections exceed its maximum. The totals of the given sections must have been
+   * computed by {@link #getTotalSize(QuotaSection)} before.
+   *
+   * @return whether the bytes were added
+   */
+  public boolean tryAdd(
+      Project.NameKey project, long delta, Map<QuotaSection, Long> maxTotalSizeBySection) {
+    lock.readLock().lock();
+    try {
+      Totals current = totals;
+      boolean[] added = new boolean[1];
+      sizeByProject.compute(
+          project,
+          (p, size) -> {
+            List<AtomicLong> limited = new ArrayList<>();
+            for (Map.Entry<QuotaSection, Long> e : maxTotalSizeBySection.entrySet()) {
+              Total total = current.byKey.get(key(e.getKey()));
+              if (total == null || limited.contains(total.size())) {
+                continue;
+              }
+              if (!tryAdd(total.size(), delta, e.getValue())) {
+                limited.forEach(limit -> limit.addAndGet(-delta));
+                return size;
+              }
+              limited.add(total.size());
+            }
+            current.forEachMatching(
+                p,
+                total -> {
+                  if (!limited.contains(total.size())) {
+                    total.size().addAndGet(delta);
+                  }
+                });
+            added[0] = true;
+            return (size == null ? 0 : size) + delta;
+          });
+      return added[0];
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private static boolean tryAdd(AtomicLong size, long delta, long max) {
+    long current;
+    do {
+      current = size.get();
+      if (current + delta > max) {
+        return false;
+      }
+    } while (!size.compareAndSet(current, current + delta));
+    return true;
+  }
+
+  /** Removes a repository, e.g. after it was deleted or evicted from the cache. */
+  public void remove(Project.NameKey project) {
+    update(project, 0, true);
+  }
+
+  private void update(Project.NameKey project, long size, boolean remove) {
+    lock.readLock().lock();
+    try {
+      sizeByProject.compute(
+          project,
+          (p, current) -> {
+            addToTotals(p, size - (current == null ? 0 : current));
+            return remove ? null : size;
+          });
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void addToTotals(Project.NameKey project, long delta) {
+    if (delta == 0) {
+      return;
+    }
+    totals.forEachMatching(project, total -> total.size().addAndGet(delta));
+  }
+
+  private static String key(QuotaSection section) {
+    return section.section() + "." + section.getNamespace();
+  }
+}
@@ -18,10 +18,24 @@ import com.google.gerrit.entities.Project;
 import org.eclipse.jgit.lib.Config;
 
 public record NamespacedQuotaSection(
-    Config cfg, String namespace, String resolvedNamespace, boolean isFallBack)
+    Config cfg,
+    String namespace,
+    Namespace resolvedNamespace,
+    boolean isFallBack,
+    QuotaLimits limits)
     implements QuotaSection {
   public static final String QUOTA = "quota";
 
+  public NamespacedQuotaSection(
+      Config cfg, String namespace, String resolvedNamespace, boolean isFallBack) {
+    this(
+        cfg,
+        namespace,
+        new Namespace(resolvedNamespace),
+        isFallBack,
+        QuotaLimits.parse(cfg, QUOTA, namespace));
+  }
+
   public NamespacedQuotaSection(Config cfg, String namespace) {
     this(cfg, namespace, false);
   }
@@ -31,11 +45,11 @@ public record NamespacedQuotaSection(
   }
 
   public String getNamespace() {
-    return resolvedNamespace;
+    return resolvedNamespace.get();
   }
 
   public boolean matches(Project.NameKey project) {
-    return new Namespace(resolvedNamespace).matches(project);
+    return resolvedNamespace.matches(project);
   }
 
   @Override
@@ -0,0 +1,147 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.apache.commons.lang3.mutable.MutableLong;
+
+/**
+ * Computes the disk usage of a Git repository directory.
+ *
+ * <p>The top level directories of the repository, the loose object fan-out directories below
+ * {@code objects} and all directories below {@code refs} are walked as separate fork-join tasks.
+ * All the walks share the same pool, whose parallelism caps the number of concurrent directory
+ * walks over all repositories. The pool is owned by the caller, who has to {@link #shutdown()} the
+ * walker once it is no longer used.
+ */
+public class ParallelDiskUsageWalker {
+  private final ForkJoinPool pool;
+
+  public ParallelDiskUsageWalker(int parallelism) {
+    this.pool = new ForkJoinPool(parallelism);
+  }
+
+  public long getDiskUsage(Path dir) throws IOException {
+    try {
+      return pool.invoke(new DirectoryTask(dir, Fork.TOP_LEVEL));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /** Stops the threads of the pool once the walks in progress are done. */
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /** Walks the whole directory tree in the calling thread. */
+  public static long getDiskUsageSequentially(Path dir) throws IOException {
+    final MutableLong size = new MutableLong();
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path path, BasicFileAttributes attrs)
+              throws IOException {
+            if (attrs.isRegularFile()) {
+              size.add(attrs.size());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return size.longValue();
+  }
+
+  private enum Fork {
+    TOP_LEVEL,
+    OBJECTS,
+    REFS,
+    NONE;
+
+    Fork forChild(Path child) {
+      switch (this) {
+        case TOP_LEVEL:
+          String name = child.getFileName().toString();
+          if (name.equals("objects")) {
+            return OBJECTS;
+          } else if (name.equals("refs")) {
+            return REFS;
+          }
+          return NONE;
+        case REFS:
+          return REFS;
+        case OBJECTS:
+        case NONE:
+        default:
+          return NONE;
+      }
+    }
+  }
+
+  private static class DirectoryTask extends RecursiveTask<Long> {
+    private static final long serialVersionUID = 1L;
+
+    private final Path dir;
+    private final Fork fork;
+
+    DirectoryTask(Path dir, Fork fork) {
+      this.dir = dir;
+      this.fork = fork;
+    }
+
+    @Override
+    protected Long compute() {
+      try {
+        if (fork == Fork.NONE) {
+          return getDiskUsageSequentially(dir);
+        }
+
+        long size = 0;
+        List<DirectoryTask> subTasks = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+          for (Path entry : entries) {
+            BasicFileAttributes attrs =
+                Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.isDirectory()) {
+              DirectoryTask subTask = new DirectoryTask(entry, fork.forChild(entry));
+              subTask.fork();
+              subTasks.add(subTask);
+            } else if (attrs.isRegularFile()) {
+              size += attrs.size();
+            }
+          }
+        }
+        for (DirectoryTask subTask : subTasks) {
+          size += subTask.join();
+        }
+        return size;
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
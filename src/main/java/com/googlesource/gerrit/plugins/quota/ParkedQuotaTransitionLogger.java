@@ -18,19 +18,27 @@ import static com.google.gerrit.server.git.WorkQueue.Task;
 import static com.googlesource.gerrit.plugins.quota.QueueManager.Queue;
 import static com.googlesource.gerrit.plugins.quota.QueueManager.QueueInfo;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.ioutil.HexFormat;
 import com.google.gerrit.util.logging.NamedFluentLogger;
-import java.time.Duration;
-import java.time.Instant;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Logs the parking of tasks to the task quota log.
+ *
+ * <p>Admitting a task only adds a record to a {@link QuotaLogBuffer}. A background writer formats
+ * the records, and keeps track of why each task is parked, so that it only logs when the reason
+ * changes. Records are dropped when the writer doesn't keep up, and the writer logs how many were.
+ * The writer runs on its own queue of the {@link WorkQueue}, from the start of the task quota log
+ * until it stops, when the records that are still buffered are written.
+ */
 public class ParkedQuotaTransitionLogger {
   protected static final NamedFluentLogger quotaLog =
       NamedFluentLogger.forName(TaskQuotaLogFile.NAME);
-  protected static final Map<Integer, TaskQuota> prevParkingQuotaByTaskId =
-      new ConcurrentHashMap<>();
-  protected static final Map<Integer, Instant> parkedSince = new ConcurrentHashMap<>();
   protected static final TaskQuota CANNOT_SATISFY_RESERVATIONS_QUOTA =
       new TaskQuota() {
         @Override
@@ -49,20 +57,189 @@ public class ParkedQuotaTransitionLogger {
         }
       };
 
+  static final int BUFFER_CAPACITY = 8192;
+  static final String WRITER_QUEUE_NAME = "TaskQuotaLogWriter";
+  private static final long WRITE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private static final long WRITER_STOP_TIMEOUT_SECONDS = 10;
+
+  /** Bounds the parked tasks the writer keeps track of, in case their stop record is dropped. */
+  private static final int MAX_TRACKED_TASKS = 100_000;
+
+  private static final int PARKED = 0;
+  private static final int STARTED = 1;
+  private static final int CLEARED = 2;
+  private static final int RELEASED_CAPACITY_UNUSED = 3;
+  private static final int CANCELLED_AFTER_MAX_PARK_TIME = 4;
+  private static final int REJECTED_WITH_MAX_PARKED_TASKS = 5;
+  private static final int REJECTED_AFTER_MAX_PARK_TIME = 6;
+
+  private static final QuotaLogBuffer buffer = new QuotaLogBuffer(BUFFER_CAPACITY);
+
+  /** Why a task is parked and since when, only accessed by the writer. */
+  private static class ParkedState {
+    final long parkedSince;
+    TaskQuota quota;
+
+    ParkedState(long parkedSince) {
+      this.parkedSince = parkedSince;
+    }
+  }
+
+  private static final Map<Integer, ParkedState> parkedStateByTaskId =
+      new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, ParkedState> eldest) {
+          return size() > MAX_TRACKED_TASKS;
+        }
+      };
+
+  private static final Object writerLock = new Object();
+  private static long reportedDroppedCount;
+  private static ScheduledExecutorService writer;
+
   /** Logs only if the reason for parked changes from the previous parking event. */
   public static void logTaskWithEnforcedQuota(Task<?> t, TaskQuota q) {
-    parkedSince.putIfAbsent(t.getTaskId(), Instant.now());
-    if (shouldLog(t, q)) {
-      quotaLog.atInfo().log("Task [%s] parked due to quota rule [%s]", formatTask(t), q);
-    }
+    buffer.add(PARKED, t, q, System.nanoTime(), 0);
   }
 
   public static void logTaskWithNoSatisfyingReservation(Task<?> t) {
-    parkedSince.putIfAbsent(t.getTaskId(), Instant.now());
-    if (!shouldLog(t, CANNOT_SATISFY_RESERVATIONS_QUOTA)) {
-      return;
+    buffer.add(PARKED, t, CANNOT_SATISFY_RESERVATIONS_QUOTA, System.nanoTime(), 0);
+  }
+
+  public static void logOnTaskStartIfParked(Task<?> t) {
+    buffer.add(STARTED, t, null, System.nanoTime(), 0);
+  }
+
+  public static void logReleasedCapacityUnused(Task<?> t, long nanos) {
+    buffer.add(RELEASED_CAPACITY_UNUSED, t, null, System.nanoTime(), nanos);
+  }
+
+  public static void logTaskCancelledAfterMaxParkTime(Task<?> t, long parkedNanos) {
+    buffer.add(CANCELLED_AFTER_MAX_PARK_TIME, t, null, System.nanoTime(), parkedNanos);
+  }
+
+  public static void logTaskRejectedAfterMaxParkTime(Task<?> t, long parkedNanos) {
+    buffer.add(REJECTED_AFTER_MAX_PARK_TIME, t, null, System.nanoTime(), parkedNanos);
+  }
+
+  public static void logTaskRejectedWithMaxParkedTasks(Task<?> t, int maxParkedTasks) {
+    buffer.add(REJECTED_WITH_MAX_PARKED_TASKS, t, null, System.nanoTime(), maxParkedTasks);
+  }
+
+  public static void clear(Task<?> t) {
+    buffer.add(CLEARED, t, null, System.nanoTime(), 0);
+  }
+
+  /** Returns how many records were dropped because the writer didn't keep up. */
+  public static long getDroppedCount() {
+    return buffer.getDroppedCount();
+  }
+
+  /** Starts writing the buffered records periodically, on a queue of the work queue. */
+  static void startWriter(WorkQueue workQueue) {
+    synchronized (writerLock) {
+      if (writer == null) {
+        writer = workQueue.createQueue(1, WRITER_QUEUE_NAME);
+        writer.scheduleWithFixedDelay(
+            ParkedQuotaTransitionLogger::runWriter,
+            WRITE_INTERVAL_NANOS,
+            WRITE_INTERVAL_NANOS,
+            TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /** Stops the writer, waiting for a running write, and writes the records still buffered. */
+  static void stopWriter() {
+    ScheduledExecutorService stopped;
+    synchronized (writerLock) {
+      stopped = writer;
+      writer = null;
+    }
+    if (stopped != null) {
+      stopped.shutdown();
+      try {
+        if (!stopped.awaitTermination(WRITER_STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          quotaLog.atWarning().log("Task quota log writer didn't stop in time");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    write();
+  }
+
+  private static void runWriter() {
+    try {
+      write();
+    } catch (RuntimeException e) {
+      // A periodic task that throws is not run again.
+      quotaLog.atSevere().withCause(e).log("Failed to write the task quota log records");
+    }
+  }
+
+  /** Writes the buffered records to the task quota log. */
+  @VisibleForTesting
+  static synchronized void write() {
+    buffer.drain(ParkedQuotaTransitionLogger::write);
+    long droppedCount = buffer.getDroppedCount();
+    if (droppedCount > reportedDroppedCount) {
+      quotaLog.atWarning().log(
+          "%d task quota log records dropped because the log writer didn't keep up",
+          droppedCount - reportedDroppedCount);
+      reportedDroppedCount = droppedCount;
     }
+  }
 
+  private static void write(int event, Task<?> t, TaskQuota q, long timestamp, long value) {
+    switch (event) {
+      case PARKED -> {
+        ParkedState state =
+            parkedStateByTaskId.computeIfAbsent(t.getTaskId(), id -> new ParkedState(timestamp));
+        if (state.quota != q) {
+          state.quota = q;
+          if (q == CANNOT_SATISFY_RESERVATIONS_QUOTA) {
+            logNoSatisfyingReservation(t);
+          } else {
+            quotaLog.atInfo().log("Task [%s] parked due to quota rule [%s]", formatTask(t), q);
+          }
+        }
+      }
+      case STARTED -> {
+        ParkedState state = parkedStateByTaskId.remove(t.getTaskId());
+        if (state != null) {
+          quotaLog.atInfo().log(
+              "Task [%s] unparked after %d seconds",
+              formatTask(t), TimeUnit.NANOSECONDS.toSeconds(timestamp - state.parkedSince));
+        }
+      }
+      case CLEARED -> parkedStateByTaskId.remove(t.getTaskId());
+      case RELEASED_CAPACITY_UNUSED ->
+          quotaLog.atFine().log(
+              "Capacity released in queue [%s] was unused for %d ms before task [%s] started",
+              t.getQueueName(), TimeUnit.NANOSECONDS.toMillis(value), formatTask(t));
+      case CANCELLED_AFTER_MAX_PARK_TIME ->
+          quotaLog.atWarning().log(
+              "Task [%s] cancelled because it was parked for %d seconds, exceeding its maximum park"
+                  + " time",
+              formatTask(t), TimeUnit.NANOSECONDS.toSeconds(value));
+      case REJECTED_AFTER_MAX_PARK_TIME -> {
+        parkedStateByTaskId.remove(t.getTaskId());
+        quotaLog.atWarning().log(
+            "Task [%s] rejected because it was parked for %d seconds, exceeding its maximum park"
+                + " time; it fails once it is started",
+            formatTask(t), TimeUnit.NANOSECONDS.toSeconds(value));
+      }
+      case REJECTED_WITH_MAX_PARKED_TASKS ->
+          quotaLog.atWarning().log(
+              "Task [%s] rejected because the maximum of %d parked tasks is reached; it is started"
+                  + " and fails its negotiation",
+              formatTask(t), value);
+      default -> throw new IllegalStateException("Unknown task quota log event " + event);
+    }
+  }
+
+  private static void logNoSatisfyingReservation(Task<?> t) {
     QueueInfo queueInfo = QueueManager.infoByQueue.get(Queue.fromKey(t.getQueueName()));
     if (queueInfo != null) {
       queueInfo.reservations.stream()
@@ -83,24 +260,10 @@ public class ParkedQuotaTransitionLogger {
     }
   }
 
-  public static void logOnTaskStartIfParked(Task<?> t) {
-    if (!prevParkingQuotaByTaskId.containsKey(t.getTaskId())) {
-      return;
-    }
-
-    quotaLog.atInfo().log(
-        "Task [%s] unparked after %d seconds",
-        formatTask(t), Duration.between(parkedSince.get(t.getTaskId()), Instant.now()).toSeconds());
-    clear(t);
-  }
-
-  public static boolean shouldLog(Task<?> t, TaskQuota q) {
-    return prevParkingQuotaByTaskId.put(t.getTaskId(), q) != q;
-  }
-
-  public static void clear(Task<?> t) {
-    prevParkingQuotaByTaskId.remove(t.getTaskId());
-    parkedSince.remove(t.getTaskId());
+  /** Returns whether the writer keeps track of the task as parked. */
+  @VisibleForTesting
+  static synchronized boolean isTrackedAsParked(Task<?> t) {
+    return parkedStateByTaskId.containsKey(t.getTaskId());
   }
 
   public static String formatTask(Task<?> t) {
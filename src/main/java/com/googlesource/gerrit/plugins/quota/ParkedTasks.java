@@ -0,0 +1,210 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The tasks parked by the task quotas, per queue in the order they were first parked, and when
+ * they were first parked. The queue decides which parked task it wakes next; the order is only
+ * used to report and check the parked tasks oldest first.
+ *
+ * <p>Capacity that is released while tasks are parked in a queue is handed over to them: it is held
+ * for the parked task that the queue wakes next, so that a new task doesn't take it first. Each
+ * release holds capacity for one wake, whether the woken task starts or is parked again. A queue
+ * never holds more releases than it has parked tasks, so that releases held for tasks that are
+ * removed without being woken, e.g. because they were cancelled, don't keep new tasks out. Held
+ * releases also expire after {@link #HELD_RELEASE_EXPIRY_NANOS}, as the queue wakes a parked task
+ * as soon as a task stops: a release still held by then was not used for a wake.
+ *
+ * <p>Also measures for how long capacity that was released while tasks were parked in a queue
+ * stayed unused, i.e. the time from a task stopping to the next task starting in that queue.
+ */
+class ParkedTasks {
+  static final long HELD_RELEASE_EXPIRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicInteger size = new AtomicInteger();
+  private final Map<String, QueueState> stateByQueue = new ConcurrentHashMap<>();
+  private final LongSupplier nanoTime;
+
+  /** The unused capacity of a queue, in nanoseconds. */
+  record IdleTime(long count, long totalNanos, long maxNanos) {}
+
+  /** A parked task, and when it was first parked. */
+  record ParkedTask(WorkQueue.Task<?> task, long parkedAt) {}
+
+  private static class QueueState {
+    final ConcurrentSkipListMap<Long, ParkedTask> parked = new ConcurrentSkipListMap<>();
+    final Map<Integer, Long> sequenceByTaskId = new ConcurrentHashMap<>();
+
+    /** When capacity was released while tasks were parked, or 0. */
+    final AtomicLong releasedAt = new AtomicLong();
+
+    /** The number of parked tasks. */
+    final AtomicInteger size = new AtomicInteger();
+
+    /** The number of releases held for the parked tasks, at most {@link #size}. */
+    final AtomicInteger handedOver = new AtomicInteger();
+
+    /** When a release was last held for the parked tasks. */
+    final AtomicLong heldAt = new AtomicLong();
+
+    final LongAdder idleCount = new LongAdder();
+    final LongAdder idleNanos = new LongAdder();
+    final LongAccumulator maxIdleNanos = new LongAccumulator(Math::max, 0);
+  }
+
+  ParkedTasks(LongSupplier nanoTime) {
+    this.nanoTime = nanoTime;
+  }
+
+  /** Parks the task, and returns whether it was not parked already. */
+  boolean park(WorkQueue.Task<?> task) {
+    QueueState state = state(task.getQueueName());
+    boolean[] parked = {false};
+    state.sequenceByTaskId.computeIfAbsent(
+        task.getTaskId(),
+        id -> {
+          long seq = sequence.incrementAndGet();
+          state.parked.put(seq, new ParkedTask(task, nanoTime.getAsLong()));
+          state.size.incrementAndGet();
+          size.incrementAndGet();
+          parked[0] = true;
+          return seq;
+        });
+    return parked[0];
+  }
+
+  /** Returns for how long the task is parked, in nanoseconds, or -1 if it is not parked. */
+  long getParkedNanos(WorkQueue.Task<?> task) {
+    QueueState state = stateByQueue.get(task.getQueueName());
+    Long seq = state != null ? state.sequenceByTaskId.get(task.getTaskId()) : null;
+    ParkedTask parked = seq != null ? state.parked.get(seq) : null;
+    return parked != null ? nanoTime.getAsLong() - parked.parkedAt() : -1;
+  }
+
+  boolean isParked(WorkQueue.Task<?> task) {
+    QueueState state = stateByQueue.get(task.getQueueName());
+    return state != null && state.sequenceByTaskId.containsKey(task.getTaskId());
+  }
+
+  /** Returns the number of parked tasks in all queues. */
+  int size() {
+    return size.get();
+  }
+
+  /**
+   * Returns whether the task may take the capacity of its queue. A parked task that is checked
+   * again was woken by the queue, and uses up one release held for the parked tasks. A task that
+   * is not parked may not take capacity held for them, unless the held releases expired.
+   */
+  boolean mayStart(WorkQueue.Task<?> task) {
+    QueueState state = stateByQueue.get(task.getQueueName());
+    if (state == null) {
+      return true;
+    }
+    if (state.sequenceByTaskId.containsKey(task.getTaskId())) {
+      state.handedOver.getAndUpdate(n -> Math.max(0, n - 1));
+      return true;
+    }
+    if (state.parked.isEmpty()
+        || nanoTime.getAsLong() - state.heldAt.get() > HELD_RELEASE_EXPIRY_NANOS) {
+      state.handedOver.set(0);
+      return true;
+    }
+    return state.handedOver.get() == 0;
+  }
+
+  /**
+   * Notes that a task of the queue started, and returns for how long released capacity of the
+   * queue was unused before it, in nanoseconds, or -1 if no capacity was released since the last
+   * start.
+   */
+  long onStart(String queue) {
+    QueueState state = stateByQueue.get(queue);
+    if (state == null) {
+      return -1;
+    }
+
+    long releasedAt = state.releasedAt.getAndSet(0);
+    if (releasedAt == 0) {
+      return -1;
+    }
+    long idle = Math.max(0, nanoTime.getAsLong() - releasedAt);
+    state.idleCount.increment();
+    state.idleNanos.add(idle);
+    state.maxIdleNanos.accumulate(idle);
+    return idle;
+  }
+
+  /** Removes a task that is started or will not be started. */
+  void remove(WorkQueue.Task<?> task) {
+    QueueState state = stateByQueue.get(task.getQueueName());
+    if (state != null) {
+      remove(state, task);
+    }
+  }
+
+  /**
+   * Notes that a task of the queue stopped, and holds the capacity it released for the tasks parked
+   * in the queue, if any.
+   */
+  void release(String queue) {
+    QueueState state = stateByQueue.get(queue);
+    if (state == null || state.parked.isEmpty()) {
+      return;
+    }
+    long now = nanoTime.getAsLong();
+    state.releasedAt.compareAndSet(0, now);
+    state.heldAt.set(now);
+    state.handedOver.getAndUpdate(n -> Math.min(n + 1, state.size.get()));
+  }
+
+  /** Returns the parked tasks of all queues, oldest first within each queue. */
+  Iterable<ParkedTask> all() {
+    return () -> stateByQueue.values().stream().flatMap(s -> s.parked.values().stream()).iterator();
+  }
+
+  IdleTime getIdleTime(String queue) {
+    QueueState state = stateByQueue.get(queue);
+    if (state == null) {
+      return new IdleTime(0, 0, 0);
+    }
+    return new IdleTime(state.idleCount.sum(), state.idleNanos.sum(), state.maxIdleNanos.get());
+  }
+
+  private QueueState state(String queue) {
+    return stateByQueue.computeIfAbsent(queue, q -> new QueueState());
+  }
+
+  private void remove(QueueState state, WorkQueue.Task<?> task) {
+    Long seq = state.sequenceByTaskId.remove(task.getTaskId());
+    if (seq != null && state.parked.remove(seq) != null) {
+      int parked = state.size.decrementAndGet();
+      state.handedOver.getAndUpdate(n -> Math.min(n, parked));
+      size.decrementAndGet();
+    }
+  }
+}
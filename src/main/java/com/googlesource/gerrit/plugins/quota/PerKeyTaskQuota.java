@@ -14,28 +14,34 @@
 
 package com.googlesource.gerrit.plugins.quota;
 
-import static com.googlesource.gerrit.plugins.quota.TaskParser.user;
-
 import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
-public class PerUserTaskQuota {
-  private final ConcurrentHashMap<String, Semaphore> quotaByUser = new ConcurrentHashMap<>();
+/**
+ * Permits per key of a task, e.g. per user. Only the keys that have tasks holding permits are kept,
+ * so there are never more keys than running tasks.
+ */
+public class PerKeyTaskQuota<K> {
+  private final ConcurrentHashMap<K, Semaphore> quotaByKey = new ConcurrentHashMap<>();
   private final int maxPermits;
+  private final Function<WorkQueue.Task<?>, Optional<K>> keyOf;
 
-  public PerUserTaskQuota(int maxPermits) {
+  public PerKeyTaskQuota(int maxPermits, Function<WorkQueue.Task<?>, Optional<K>> keyOf) {
     this.maxPermits = maxPermits;
+    this.keyOf = keyOf;
   }
 
   public boolean tryAcquire(WorkQueue.Task<?> task) {
-    return user(task)
+    return keyOf.apply(task)
         .map(
-            user -> {
+            k -> {
               AtomicBoolean acquired = new AtomicBoolean(false);
-              quotaByUser.compute(
-                  user,
+              quotaByKey.compute(
+                  k,
                   (key, semaphore) -> {
                     if (semaphore == null) {
                       semaphore = new Semaphore(maxPermits);
@@ -50,13 +56,39 @@ public class PerUserTaskQuota {
         .orElse(true);
   }
 
+  /** Acquires a permit for the key of the task, even if the key has none left. */
+  public void forceAcquire(WorkQueue.Task<?> task) {
+    keyOf.apply(task)
+        .ifPresent(
+            k ->
+                quotaByKey.compute(
+                    k,
+                    (key, semaphore) -> {
+                      if (semaphore == null) {
+                        semaphore = new Semaphore(maxPermits);
+                      }
+                      return semaphore.tryAcquire()
+                          ? semaphore
+                          : new Semaphore(semaphore.availablePermits() - 1);
+                    }));
+  }
+
+  /** Returns the number of permits held by the key that holds the most of them. */
+  public int getMaxInUse() {
+    int maxInUse = 0;
+    for (Semaphore semaphore : quotaByKey.values()) {
+      maxInUse = Math.max(maxInUse, maxPermits - semaphore.availablePermits());
+    }
+    return maxInUse;
+  }
+
   public void release(WorkQueue.Task<?> task) {
-    user(task)
+    keyOf.apply(task)
         .ifPresent(
-            user ->
-                quotaByUser.computeIfPresent(
-                    user,
-                    (u, quota) -> {
+            k ->
+                quotaByKey.computeIfPresent(
+                    k,
+                    (key, quota) -> {
                       quota.release();
                       return quota.availablePermits() == maxPermits ? null : quota;
                     }));
@@ -15,14 +15,16 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.server.git.WorkQueue;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Predicate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,72 +32,224 @@ import org.slf4j.LoggerFactory;
 public class QueueManager {
   public static final Logger log = LoggerFactory.getLogger(QueueManager.class);
 
+  /**
+   * The running tasks of a queue and their allocation to the reservations of the queue.
+   *
+   * <p>A running task is allocated to the first reservation it matches that has capacity left, or
+   * counts against the spare threads otherwise. The allocations are updated when tasks start and
+   * stop, so that admitting a task doesn't need to look at the other running tasks. When a task
+   * allocated to a reservation stops, a running task that is waiting for that reservation takes
+   * over its allocation.
+   *
+   * <p>Admission is lock-free: the number of running tasks and of tasks using spare threads are
+   * packed into one counter that is updated by compare-and-set, and each reservation has its own
+   * allocation counter. Starts and stops in different reservations therefore don't contend.
+   */
   public static class QueueInfo {
+    private static final long RUNNING = 1L << 32;
+    private static final long SPARE = 1L;
+    private static final Object UNALLOCATED = new Object();
+    private static final Object DONE = new Object();
+
     public final int maxThreads;
-    public int spareThreads;
+    public volatile int spareThreads;
     public final Map<Integer, WorkQueue.Task<?>> runningTaskById;
     public final List<Reservation> reservations;
+    private final List<Allocation> allocations = new CopyOnWriteArrayList<>();
+    private final Map<Integer, Slot> slotByTaskId = new ConcurrentHashMap<>();
+
+    /** Running tasks in the upper 32 bits, tasks using spare threads in the lower 32 bits. */
+    private final AtomicLong counts = new AtomicLong();
+
+    private static class Allocation {
+      final Reservation reservation;
+      final AtomicInteger allocated = new AtomicInteger();
+
+      /** Running tasks that match this reservation but use spare threads. */
+      final Set<Slot> waiting = ConcurrentHashMap.newKeySet();
+
+      Allocation(Reservation reservation) {
+        this.reservation = reservation;
+      }
+
+      boolean tryAllocate() {
+        int current;
+        do {
+          current = allocated.get();
+          if (current >= reservation.reservedCapacity()) {
+            return false;
+          }
+        } while (!allocated.compareAndSet(current, current + 1));
+        return true;
+      }
+    }
+
+    private static class Slot {
+      final WorkQueue.Task<?> task;
+
+      /** The allocation of the task, {@link #UNALLOCATED} or {@link #DONE}. */
+      final AtomicReference<Object> owner;
+
+      Slot(WorkQueue.Task<?> task, Object owner) {
+        this.task = task;
+        this.owner = new AtomicReference<>(owner);
+      }
+    }
 
     public QueueInfo(int maxThreads) {
       this.maxThreads = maxThreads;
       this.spareThreads = maxThreads;
-      this.runningTaskById = new HashMap<>();
-      this.reservations = new ArrayList<>();
+      this.runningTaskById = new ConcurrentHashMap<>();
+      this.reservations = new CopyOnWriteArrayList<>();
     }
 
     public boolean run(WorkQueue.Task<?> task) {
-      if (runningTaskById.size() >= maxThreads) {
-        return false;
-      }
-
-      if (runningTaskById.put(task.getTaskId(), task) != null) {
+      if (slotByTaskId.containsKey(task.getTaskId())) {
         return true;
       }
 
-      if (!reservations.isEmpty() && !canAllocate()) {
-        runningTaskById.remove((task.getTaskId()));
+      Slot slot = admit(task, false);
+      if (slot == null) {
         return false;
       }
-
+      slotByTaskId.put(task.getTaskId(), slot);
+      runningTaskById.put(task.getTaskId(), task);
       return true;
     }
 
     public void complete(WorkQueue.Task<?> task) {
+      Slot slot = slotByTaskId.remove(task.getTaskId());
+      if (slot == null) {
+        return;
+      }
       runningTaskById.remove(task.getTaskId());
+
+      Object owner = slot.owner.getAndSet(DONE);
+      if (owner == UNALLOCATED) {
+        counts.addAndGet(-(RUNNING + SPARE));
+        stopWaiting(slot);
+        return;
+      }
+
+      // Allocated to a reservation, either when admitted or by taking over from a stopped task.
+      Allocation allocation = (Allocation) owner;
+      for (Slot waiting : allocation.waiting) {
+        if (allocation.waiting.remove(waiting)
+            && waiting.owner.compareAndSet(UNALLOCATED, allocation)) {
+          stopWaiting(waiting);
+          counts.addAndGet(-(RUNNING + SPARE));
+          return;
+        }
+      }
+      allocation.allocated.decrementAndGet();
+      counts.addAndGet(-RUNNING);
+    }
+
+    /**
+     * Removes the reservations of this queue. The tasks running in this queue keep running, and use
+     * spare threads until they are allocated to the reservations that are added next.
+     */
+    synchronized void clearReservations() {
+      List<Allocation> cleared = List.copyOf(allocations);
+      allocations.clear();
+      reservations.clear();
+      spareThreads = maxThreads;
+      for (Allocation allocation : cleared) {
+        allocation.waiting.clear();
+      }
+      for (Slot slot : slotByTaskId.values()) {
+        Object owner = slot.owner.get();
+        if (owner instanceof Allocation && slot.owner.compareAndSet(owner, UNALLOCATED)) {
+          counts.addAndGet(SPARE);
+        }
+      }
     }
 
     public boolean ensureIdle(int threads) {
-      return maxThreads - runningTaskById.size() >= threads;
+      return maxThreads - running(counts.get()) >= threads;
     }
 
-    public void addReservation(Reservation incomingReservation) {
+    public synchronized void addReservation(Reservation incomingReservation) {
+      Allocation allocation = new Allocation(incomingReservation);
       reservations.add(incomingReservation);
+      allocations.add(allocation);
       spareThreads -= incomingReservation.reservedCapacity();
+
+      for (Slot slot : slotByTaskId.values()) {
+        if (!incomingReservation.matches(slot.task)) {
+          continue;
+        }
+        if (!allocation.tryAllocate()) {
+          allocation.waiting.add(slot);
+        } else if (slot.owner.compareAndSet(UNALLOCATED, allocation)) {
+          stopWaiting(slot);
+          counts.addAndGet(-SPARE);
+        } else {
+          allocation.allocated.decrementAndGet();
+        }
+      }
+    }
+
+    /** Returns how many running tasks are allocated to each reservation. */
+    public List<ReservationUsage> getReservationUsage() {
+      return allocations.stream()
+          .map(a -> new ReservationUsage(a.reservation, a.allocated.get()))
+          .toList();
     }
 
+    /** Returns whether the running tasks don't use more than the spare threads. */
     public boolean canAllocate() {
-      int spareAllocations = 0;
-      Map<Reservation, Integer> allocationsByReservation = new HashMap<>();
-
-      for (WorkQueue.Task<?> runningTask : runningTaskById.values()) {
-        boolean allocatedToReservation = false;
-        for (Reservation reservation : reservations) {
-          if (reservation.matches(runningTask)) {
-            int currentAllocation = allocationsByReservation.getOrDefault(reservation, 0);
-            if (currentAllocation < reservation.reservedCapacity()) {
-              allocationsByReservation.put(reservation, currentAllocation + 1);
-              allocatedToReservation = true;
-              break;
-            }
+      return spare(counts.get()) <= spareThreads;
+    }
+
+    private Slot admit(WorkQueue.Task<?> task, boolean force) {
+      for (Allocation allocation : allocations) {
+        if (allocation.reservation.matches(task) && allocation.tryAllocate()) {
+          if (tryAddCounts(RUNNING, force)) {
+            return new Slot(task, allocation);
           }
+          allocation.allocated.decrementAndGet();
+          return null;
+        }
+      }
+
+      if (!tryAddCounts(RUNNING + SPARE, force)) {
+        return null;
+      }
+      Slot slot = new Slot(task, UNALLOCATED);
+      for (Allocation allocation : allocations) {
+        if (allocation.reservation.matches(task)) {
+          allocation.waiting.add(slot);
         }
+      }
+      return slot;
+    }
 
-        if (!allocatedToReservation) {
-          spareAllocations++;
+    private boolean tryAddCounts(long delta, boolean force) {
+      long current;
+      do {
+        current = counts.get();
+        if (!force
+            && (running(current) >= maxThreads
+                || ((delta & SPARE) != 0 && spare(current) >= spareThreads))) {
+          return false;
         }
+      } while (!counts.compareAndSet(current, current + delta));
+      return true;
+    }
+
+    private void stopWaiting(Slot slot) {
+      for (Allocation allocation : allocations) {
+        allocation.waiting.remove(slot);
       }
+    }
 
-      return spareAllocations <= spareThreads;
+    private static int running(long counts) {
+      return (int) (counts >>> 32);
+    }
+
+    private static int spare(long counts) {
+      return (int) counts;
     }
   }
 
@@ -106,32 +260,26 @@ public class QueueManager {
     }
   }
 
-  public enum Queue {
-    INTERACTIVE("SSH-Interactive-Worker"),
-    BATCH("SSH-Batch-Worker"),
-    UNKNOWN("UNKNOWN");
+  /** The number of running tasks allocated to a reservation. */
+  public record ReservationUsage(Reservation reservation, int allocated) {}
 
-    private final String name;
+  /**
+   * A named {@link WorkQueue} executor. The instances are interned, so that looking up the queue of
+   * a task doesn't allocate.
+   */
+  public record Queue(String name) {
+    private static final ConcurrentMap<String, Queue> byName = new ConcurrentHashMap<>();
 
-    Queue(String name) {
-      this.name = name;
-    }
+    public static final Queue INTERACTIVE = fromKey("SSH-Interactive-Worker");
+    public static final Queue BATCH = fromKey("SSH-Batch-Worker");
 
     public String getName() {
       return name;
     }
 
-    public static String[] keys() {
-      return Arrays.stream(Queue.values()).map(Queue::getName).toArray(String[]::new);
-    }
-
     public static Queue fromKey(String key) {
-      for (Queue q : Queue.values()) {
-        if (q.getName().equals(key)) {
-          return q;
-        }
-      }
-      return UNKNOWN;
+      Queue queue = byName.get(key);
+      return queue != null ? queue : byName.computeIfAbsent(key, Queue::new);
     }
   }
 
@@ -141,13 +289,25 @@ public class QueueManager {
     infoByQueue.put(q, new QueueInfo(c));
   }
 
+  /**
+   * Removes the reservations of all queues. The running tasks stay accounted for, so that they are
+   * allocated to the reservations that are registered next.
+   */
+  public static void clearReservations() {
+    infoByQueue.values().forEach(QueueInfo::clearReservations);
+  }
+
+  public static boolean isManaged(String qName) {
+    return infoByQueue.containsKey(Queue.fromKey(qName));
+  }
+
   public static void registerReservation(String qName, Reservation reservation) {
-    Queue q = Queue.fromKey(qName);
-    if (q == Queue.UNKNOWN) {
+    QueueInfo queueInfo = infoByQueue.get(Queue.fromKey(qName));
+    if (queueInfo == null) {
+      log.error("Cannot enforce reservation for unknown queue '{}'", qName);
       return;
     }
 
-    QueueInfo queueInfo = infoByQueue.get(q);
     int capacityToReserve = queueInfo.spareThreads - 1;
     if (capacityToReserve < 1) {
       log.error(
@@ -172,30 +332,15 @@ public class QueueManager {
   }
 
   public static boolean acquire(WorkQueue.Task<?> task) {
-    Queue q = Queue.fromKey(task.getQueueName());
-    if (q == Queue.UNKNOWN) {
-      return true;
-    }
-
-    final AtomicBoolean acquired = new AtomicBoolean(false);
-    infoByQueue.computeIfPresent(
-        q,
-        (queue, info) -> {
-          acquired.setPlain(info.run(task));
-          return info;
-        });
-
-    return acquired.getPlain();
+    QueueInfo info = infoByQueue.get(Queue.fromKey(task.getQueueName()));
+    return info == null || info.run(task);
   }
 
   public static void release(WorkQueue.Task<?> task) {
-    Queue q = Queue.fromKey(task.getQueueName());
-    infoByQueue.computeIfPresent(
-        q,
-        (queue, info) -> {
-          info.complete(task);
-          return info;
-        });
+    QueueInfo info = infoByQueue.get(Queue.fromKey(task.getQueueName()));
+    if (info != null) {
+      info.complete(task);
+    }
   }
 
   public static boolean ensureIdle(Queue q, int c) {
@@ -14,68 +14,64 @@
 
 package com.googlesource.gerrit.plugins.quota;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.inject.Inject;
-import java.util.List;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
 import org.eclipse.jgit.lib.Config;
 
+@Singleton
 public class QuotaFinder {
   private final ProjectCache projectCache;
+  private final Provider<RepoSizeSnapshot> repoSizes;
+  private final Provider<UserGroups> userGroups;
+  private volatile QuotaPolicy policy;
 
   @Inject
-  QuotaFinder(ProjectCache projectCache) {
+  QuotaFinder(
+      ProjectCache projectCache,
+      Provider<RepoSizeSnapshot> repoSizes,
+      Provider<UserGroups> userGroups) {
     this.projectCache = projectCache;
+    this.repoSizes = repoSizes;
+    this.userGroups = userGroups;
   }
 
-  public QuotaSection firstMatching(Project.NameKey project) {
-    return firstMatching(getQuotaConfig(), project);
-  }
-
-  public QuotaSection firstMatching(Config cfg, Project.NameKey project) {
-    Set<String> namespaces = cfg.getSubsections(NamespacedQuotaSection.QUOTA);
-    String p = project.get();
-    for (String n : namespaces) {
-      if ("?/*".equals(n) || n.endsWith("/?/*")) {
-        String prefix = n.substring(0, n.length() - 3);
-        Matcher m = Pattern.compile("^" + prefix + "([^/]+)/.*$").matcher(p);
-        if (m.matches()) {
-          return new NamespacedQuotaSection(cfg, n, prefix + m.group(1) + "/*", false);
-        }
-      } else if (n.endsWith("/*")) {
-        if (p.startsWith(n.substring(0, n.length() - 1))) {
-          return new NamespacedQuotaSection(cfg, n);
-        }
-      } else if (n.startsWith("^")) {
-        if (p.matches(n.substring(1))) {
-          return new NamespacedQuotaSection(cfg, n);
-        }
-      } else if (p.equals(n)) {
-        return new NamespacedQuotaSection(cfg, n);
-      }
-    }
-    return null;
+  @VisibleForTesting
+  QuotaFinder(ProjectCache projectCache) {
+    this(projectCache, () -> null, () -> null);
   }
 
-  public QuotaSection getGlobalNamespacedQuota() {
-    return getGlobalNamespacedQuota(getQuotaConfig());
+  @VisibleForTesting
+  QuotaFinder(ProjectCache projectCache, UserGroups userGroups) {
+    this(projectCache, () -> null, () -> userGroups);
   }
 
-  public QuotaSection getGlobalNamespacedQuota(Config cfg) {
-    return new GlobalQuotaSection(cfg);
+  /**
+   * Returns the policy compiled from the current {@code quota.config}. The policy is compiled again
+   * only when the config was reloaded, i.e. when {@code refs/meta/config} of {@code All-Projects}
+   * changed.
+   */
+  public QuotaPolicy getPolicy() {
+    Config cfg = getQuotaConfig();
+    QuotaPolicy current = policy;
+    if (current == null || !current.isCompiledFrom(cfg)) {
+      current =
+          new QuotaPolicy(
+              cfg, new TaskQuotaKeys.Services(repoSizes.get(), userGroups.get()));
+      policy = current;
+    }
+    return current;
   }
 
-  public QuotaSection getFallbackNamespacedQuota(Config cfg) {
-    return new NamespacedQuotaSection(cfg, "*");
+  public QuotaSection firstMatching(Project.NameKey project) {
+    return getPolicy().firstMatching(project);
   }
 
-  public List<NamespacedQuotaSection> getQuotaNamespaces(Config cfg) {
-    return cfg.getSubsections(NamespacedQuotaSection.QUOTA).stream()
-        .map(ns -> new NamespacedQuotaSection(cfg, ns))
-        .toList();
+  public QuotaSection getGlobalNamespacedQuota() {
+    return getPolicy().getGlobal();
   }
 
   public Config getQuotaConfig() {
@@ -0,0 +1,44 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.googlesource.gerrit.plugins.quota.QuotaSection.KEY_MAX_PROJECTS;
+import static com.googlesource.gerrit.plugins.quota.QuotaSection.KEY_MAX_REPO_SIZE;
+import static com.googlesource.gerrit.plugins.quota.QuotaSection.KEY_MAX_TOTAL_SIZE;
+
+import java.util.Set;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * The repository and project limits of a quota section, parsed once when the section is created.
+ * A limit is null if it isn't set.
+ */
+public record QuotaLimits(Integer maxProjects, Long maxRepoSize, Long maxTotalSize) {
+
+  public static QuotaLimits parse(Config cfg, String section, String subSection) {
+    Set<String> names = cfg.getNames(section, subSection);
+    return new QuotaLimits(
+        names.contains(KEY_MAX_PROJECTS)
+            ? cfg.getInt(section, subSection, KEY_MAX_PROJECTS, Integer.MAX_VALUE)
+            : null,
+        names.contains(KEY_MAX_REPO_SIZE)
+            ? cfg.getLong(section, subSection, KEY_MAX_REPO_SIZE, Long.MAX_VALUE)
+            : null,
+        names.contains(KEY_MAX_TOTAL_SIZE)
+            ? cfg.getLong(section, subSection, KEY_MAX_TOTAL_SIZE, Long.MAX_VALUE)
+            : null);
+  }
+}
@@ -0,0 +1,125 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded lock-free ring buffer of task quota log records, written by the threads admitting
+ * tasks and read by a single writer.
+ *
+ * <p>The fields of the records are kept in preallocated arrays, so that adding a record doesn't
+ * allocate. A slot is claimed by advancing the head, and its sequence is set once the record is
+ * written, so that the reader only sees complete records. A record that doesn't fit is dropped and
+ * counted instead of waiting for the reader.
+ */
+class QuotaLogBuffer {
+  interface Reader {
+    void read(int event, WorkQueue.Task<?> task, TaskQuota quota, long timestamp, long value);
+  }
+
+  private final int mask;
+  private final int[] events;
+  private final WorkQueue.Task<?>[] tasks;
+  private final TaskQuota[] quotas;
+  private final long[] timestamps;
+  private final long[] values;
+
+  /**
+   * The position a slot is free for, or one past the position of the record in it once written.
+   */
+  private final AtomicLongArray sequences;
+
+  private final AtomicLong head = new AtomicLong();
+  private final LongAdder dropped = new LongAdder();
+  private long tail;
+
+  QuotaLogBuffer(int capacity) {
+    checkArgument(
+        capacity > 0 && Integer.bitCount(capacity) == 1,
+        "capacity %s is not a power of two",
+        capacity);
+    mask = capacity - 1;
+    events = new int[capacity];
+    tasks = new WorkQueue.Task<?>[capacity];
+    quotas = new TaskQuota[capacity];
+    timestamps = new long[capacity];
+    values = new long[capacity];
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /** Adds a record, returning false if it was dropped because the buffer is full. */
+  boolean add(int event, WorkQueue.Task<?> task, TaskQuota quota, long timestamp, long value) {
+    long pos = head.get();
+    int slot;
+    while (true) {
+      slot = (int) pos & mask;
+      long seq = sequences.getAcquire(slot);
+      if (seq == pos) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          break;
+        }
+        pos = head.get();
+      } else if (seq < pos) {
+        dropped.increment();
+        return false;
+      } else {
+        pos = head.get();
+      }
+    }
+
+    events[slot] = event;
+    tasks[slot] = task;
+    quotas[slot] = quota;
+    timestamps[slot] = timestamp;
+    values[slot] = value;
+    sequences.setRelease(slot, pos + 1);
+    return true;
+  }
+
+  /** Reads the records in the order they were added, returning how many were read. */
+  synchronized int drain(Reader reader) {
+    int read = 0;
+    while (true) {
+      int slot = (int) tail & mask;
+      if (sequences.getAcquire(slot) != tail + 1) {
+        return read;
+      }
+      WorkQueue.Task<?> task = tasks[slot];
+      TaskQuota quota = quotas[slot];
+      tasks[slot] = null;
+      quotas[slot] = null;
+      try {
+        reader.read(events[slot], task, quota, timestamps[slot], values[slot]);
+      } finally {
+        sequences.setRelease(slot, tail + mask + 1);
+        tail++;
+      }
+      read++;
+    }
+  }
+
+  long getDroppedCount() {
+    return dropped.sum();
+  }
+}
@@ -0,0 +1,143 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.entities.Project;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The quotas defined in a {@code quota.config}, compiled once into an immutable snapshot.
+ *
+ * <p>The limits of all sections are parsed, the namespace patterns are compiled and the task
+ * quotas are built when the snapshot is created, so that the quota checks don't need to read the
+ * config again. The namespaces are looked up in a {@link NamespaceIndex}, and the task quotas of
+ * each section in a {@link TaskQuotaIndex}.
+ */
+public class QuotaPolicy {
+  private static final Logger log = LoggerFactory.getLogger(QuotaPolicy.class);
+
+  private final Config cfg;
+  private final NamespaceIndex<NamespaceMatcher> namespaces = new NamespaceIndex<>();
+  private final GlobalQuotaSection global;
+  private final NamespacedQuotaSection fallback;
+  private final ImmutableMap<QuotaSection, TaskQuotaIndex> taskQuotasBySection;
+  private final TaskQuotaIndex globalTaskQuotas;
+
+  public QuotaPolicy(Config cfg) {
+    this(cfg, TaskQuotaKeys.Services.NONE);
+  }
+
+  /** Compiles the config, building the task quotas with the services that they depend on. */
+  public QuotaPolicy(Config cfg, TaskQuotaKeys.Services services) {
+    this.cfg = cfg;
+    ImmutableMap.Builder<QuotaSection, TaskQuotaIndex> taskQuotas = ImmutableMap.builder();
+    for (String namespace : cfg.getSubsections(NamespacedQuotaSection.QUOTA)) {
+      NamespacedQuotaSection section = new NamespacedQuotaSection(cfg, namespace);
+      NamespaceMatcher.add(namespaces, section);
+      taskQuotas.put(section, new TaskQuotaIndex(section.getAllQuotas(services)));
+    }
+    this.taskQuotasBySection = taskQuotas.build();
+    this.global = new GlobalQuotaSection(cfg);
+    this.globalTaskQuotas = new TaskQuotaIndex(global.getAllQuotas(services));
+    this.fallback = new NamespacedQuotaSection(cfg, "*");
+  }
+
+  /** Returns whether this policy was compiled from the given config. */
+  public boolean isCompiledFrom(Config cfg) {
+    return this.cfg == cfg;
+  }
+
+  /**
+   * Returns the first quota section in {@code quota.config} whose namespace matches the project,
+   * or null if there is none.
+   */
+  public QuotaSection firstMatching(Project.NameKey project) {
+    String p = project.get();
+    NamespaceMatcher matcher = namespaces.first(p);
+    return matcher != null ? matcher.resolve(p) : null;
+  }
+
+  public GlobalQuotaSection getGlobal() {
+    return global;
+  }
+
+  public NamespacedQuotaSection getFallback() {
+    return fallback;
+  }
+
+  /**
+   * Returns the task quotas of the section that applies to the project, that may apply to the
+   * task.
+   */
+  public List<TaskQuota> getTaskQuotas(Project.NameKey project, TaskDescriptor task) {
+    QuotaSection section = firstMatching(project);
+    TaskQuotaIndex index = taskQuotasBySection.get(section != null ? section : fallback);
+    return index != null ? index.candidates(task) : List.of();
+  }
+
+  /** Returns the task quotas of the global section that may apply to the task. */
+  public List<TaskQuota> getGlobalTaskQuotas(TaskDescriptor task) {
+    return globalTaskQuotas.candidates(task);
+  }
+
+  /** Returns the task quotas of all sections, in the order they are defined. */
+  public List<TaskQuota> getAllTaskQuotas() {
+    ImmutableList.Builder<TaskQuota> all = ImmutableList.builder();
+    taskQuotasBySection.values().forEach(index -> all.addAll(index.all()));
+    return all.addAll(globalTaskQuotas.all()).build();
+  }
+
+  private record NamespaceMatcher(NamespacedQuotaSection section, String forEachPrefix) {
+    static void add(NamespaceIndex<NamespaceMatcher> index, NamespacedQuotaSection section) {
+      String n = section.namespace();
+      if ("?/*".equals(n) || n.endsWith("/?/*")) {
+        String prefix = n.substring(0, n.length() - 3);
+        index.addForEach(prefix, new NamespaceMatcher(section, prefix));
+      } else if (n.endsWith("/*")) {
+        index.addPrefix(n.substring(0, n.length() - 1), new NamespaceMatcher(section, null));
+      } else if (n.startsWith("^")) {
+        try {
+          index.addRegex(Pattern.compile(n.substring(1)), new NamespaceMatcher(section, null));
+        } catch (PatternSyntaxException e) {
+          log.error("Ignoring quota for invalid namespace pattern [{}]", n, e);
+        }
+      } else {
+        index.addExact(n, new NamespaceMatcher(section, null));
+      }
+    }
+
+    /** Returns the section for a project that was matched by the namespace of this section. */
+    QuotaSection resolve(String project) {
+      if (forEachPrefix == null) {
+        return section;
+      }
+      int end = project.indexOf('/', forEachPrefix.length());
+      return new NamespacedQuotaSection(
+          section.cfg(),
+          section.namespace(),
+          new Namespace(project.substring(0, end) + "/*"),
+          false,
+          section.limits());
+    }
+  }
+}
@@ -29,33 +29,32 @@ public interface QuotaSection {
 
   boolean matches(Project.NameKey project);
 
+  /** Returns the limits of this section, parsed when the section was created. */
+  QuotaLimits limits();
+
   default Integer getMaxProjects() {
-    if (!cfg().getNames(section(), subSection()).contains(KEY_MAX_PROJECTS)) {
-      return null;
-    }
-    return cfg().getInt(section(), subSection(), KEY_MAX_PROJECTS, Integer.MAX_VALUE);
+    return limits().maxProjects();
   }
 
   default Long getMaxRepoSize() {
-    if (!cfg().getNames(section(), subSection()).contains(KEY_MAX_REPO_SIZE)) {
-      return null;
-    }
-    return cfg().getLong(section(), subSection(), KEY_MAX_REPO_SIZE, Long.MAX_VALUE);
+    return limits().maxRepoSize();
   }
 
   default Long getMaxTotalSize() {
-    if (!cfg().getNames(section(), subSection()).contains(KEY_MAX_TOTAL_SIZE)) {
-      return null;
-    }
-    return cfg().getLong(section(), subSection(), KEY_MAX_TOTAL_SIZE, Long.MAX_VALUE);
+    return limits().maxTotalSize();
   }
 
-  default List<TaskQuota> getAllQuotas() {
+  /**
+   * Builds the task quotas of this section.
+   *
+   * @param services the services that the quotas depend on
+   */
+  default List<TaskQuota> getAllQuotas(TaskQuotaKeys.Services services) {
     return Arrays.stream(TaskQuotaKeys.values())
         .flatMap(
             type ->
                 Arrays.stream(cfg().getStringList(section(), subSection(), type.key))
-                    .map(cfg -> type.processor.apply(this, cfg))
+                    .map(cfg -> type.factory.build(this, cfg, services))
                     .flatMap(Optional::stream))
         .toList();
   }
@@ -15,11 +15,15 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.entities.Project;
+import java.util.OptionalLong;
 
 public interface RepoSizeCache {
 
   long get(Project.NameKey p);
 
+  /** Returns the size of the project if it is cached, without computing it otherwise. */
+  OptionalLong getIfPresent(Project.NameKey p);
+
   void set(Project.NameKey p, long size);
 
   void evict(Project.NameKey p);
@@ -0,0 +1,132 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer0;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Recomputes repository sizes in the background when the {@code repo_size} cache refreshes an
+ * entry, so that callers keep being served the previous size while the repository is walked.
+ *
+ * <p>The queue is only created by the first refresh, and is shut down when the plugin stops.
+ */
+@Singleton
+public class RepoSizeRefresher implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(RepoSizeRefresher.class);
+  static final String QUEUE_NAME = "RepoSizeRefresh";
+
+  private final WorkQueue workQueue;
+  private final int threads;
+  private final Counter0 refreshCount;
+  private final Counter0 refreshFailureCount;
+  private final Timer0 refreshLatency;
+  private ListeningExecutorService executor;
+  private boolean stopped;
+
+  @Inject
+  RepoSizeRefresher(
+      WorkQueue workQueue,
+      MetricMaker metricMaker,
+      PluginConfigFactory cfg,
+      @PluginName String pluginName) {
+    this(
+        workQueue,
+        metricMaker,
+        cfg.getFromGerritConfig(pluginName).getInt("repoSizeRefreshThreads", 1));
+  }
+
+  @VisibleForTesting
+  RepoSizeRefresher(WorkQueue workQueue, MetricMaker metricMaker, int threads) {
+    this.workQueue = workQueue;
+    this.threads = Math.max(1, threads);
+    this.refreshCount =
+        metricMaker.newCounter(
+            "repo_size/refresh_count",
+            new Description("Number of background refreshes of repository sizes")
+                .setRate()
+                .setUnit("refreshes"));
+    this.refreshFailureCount =
+        metricMaker.newCounter(
+            "repo_size/refresh_failure_count",
+            new Description("Number of failed background refreshes of repository sizes")
+                .setRate()
+                .setUnit("failures"));
+    this.refreshLatency =
+        metricMaker.newTimer(
+            "repo_size/refresh_latency",
+            new Description("Time spent recomputing a repository size in the background")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS));
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public synchronized void stop() {
+    stopped = true;
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /** Returns the executor of the refreshes, or null once the plugin stopped. */
+  private synchronized ListeningExecutorService getExecutor() {
+    if (executor == null && !stopped) {
+      executor = MoreExecutors.listeningDecorator(workQueue.createQueue(threads, QUEUE_NAME));
+    }
+    return stopped ? null : executor;
+  }
+
+  public ListenableFuture<AtomicLong> reload(
+      Project.NameKey project, Callable<AtomicLong> loader) {
+    ListeningExecutorService executor = getExecutor();
+    if (executor == null) {
+      return Futures.immediateFailedFuture(
+          new IllegalStateException("Repository size refreshes are stopped"));
+    }
+    return executor.submit(
+        () -> {
+          refreshCount.increment();
+          try (Timer0.Context ignored = refreshLatency.start()) {
+            return loader.call();
+          } catch (Exception e) {
+            refreshFailureCount.increment();
+            log.warn("Refreshing the size of repository {} failed", project, e);
+            throw e;
+          }
+        });
+  }
+}
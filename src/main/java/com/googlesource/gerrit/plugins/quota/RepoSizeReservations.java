@@ -0,0 +1,231 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.googlesource.gerrit.plugins.quota.MaxRepositorySizeQuota.REPO_SIZE_CACHE;
+
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes granted to pushes by {@link MaxRepositorySizeQuota} that are not yet part of the cached
+ * repository sizes.
+ *
+ * <p>A reservation counts against the repository limits until it is released by a refill, or
+ * until the repository size is computed again after the reservation was made, as the computed size
+ * then includes the pushed pack. Reservations that are neither released nor superseded within
+ * their time to live are committed into the cached repository size. This happens whenever the
+ * reservations of the project are read, and for all projects at least once per time to live, so
+ * that projects without reservations are forgotten.
+ *
+ * <p>The reservations of a project are only updated within its entry of a concurrent map, so
+ * concurrent pushes into different repositories don't contend, and concurrent pushes into the same
+ * repository can't exceed its limit together.
+ */
+@Singleton
+public class RepoSizeReservations {
+  static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+  private final Map<Project.NameKey, Pending> pendingByProject = new ConcurrentHashMap<>();
+  private final Provider<LoadingCache<Project.NameKey, AtomicLong>> cache;
+  private final long ttlNanos;
+  private final AtomicLong nextSweep;
+
+  /** A reservation, that is released by the push that made it. */
+  public record Reservation(Project.NameKey project, long bytes, long createdNanos) {}
+
+  /** The reservations of a project, oldest first, only accessed within its map entry. */
+  private static class Pending {
+    final Deque<Reservation> reservations = new ArrayDeque<>();
+    long bytes;
+  }
+
+  @Inject
+  RepoSizeReservations(
+      PluginConfigFactory cfg,
+      @PluginName String pluginName,
+      @Named(REPO_SIZE_CACHE) Provider<LoadingCache<Project.NameKey, AtomicLong>> cache) {
+    this(
+        Duration.ofSeconds(
+            ConfigUtil.getTimeUnit(
+                cfg.getFromGerritConfig(pluginName)
+                    .getString("repoSizeReservationTtl", DEFAULT_TTL.getSeconds() + " s"),
+                DEFAULT_TTL.getSeconds(),
+                TimeUnit.SECONDS)),
+        cache);
+  }
+
+  RepoSizeReservations(Duration ttl, Provider<LoadingCache<Project.NameKey, AtomicLong>> cache) {
+    this.ttlNanos = ttl.toNanos();
+    this.cache = cache;
+    this.nextSweep = new AtomicLong(System.nanoTime() + ttlNanos);
+  }
+
+  /**
+   * Reserves {@code bytes} for the project unless the pending bytes of the project would then
+   * exceed {@code maxPending}.
+   *
+   * @return the reservation, or null if the bytes were not reserved
+   */
+  public Reservation tryReserve(Project.NameKey project, long bytes, long maxPending) {
+    Reservation[] reserved = new Reservation[1];
+    long now = System.nanoTime();
+    pendingByProject.compute(
+        project,
+        (p, pending) -> {
+          long current = pending == null ? 0 : pending.bytes;
+          if (current + bytes > maxPending) {
+            return pending;
+          }
+          if (pending == null) {
+            pending = new Pending();
+          }
+          pending.bytes += bytes;
+          reserved[0] = new Reservation(p, bytes, now);
+          pending.reservations.add(reserved[0]);
+          return pending;
+        });
+    sweepIfDue(now);
+    return reserved[0];
+  }
+
+  /** Commits the expired reservations of the project into its cached repository size. */
+  public void commitExpired(Project.NameKey project) {
+    getPending(project);
+  }
+
+  /**
+   * Returns the bytes reserved for the project, after committing its expired reservations into the
+   * cached repository size.
+   */
+  public long getPending(Project.NameKey project) {
+    long[] bytes = new long[1];
+    long now = System.nanoTime();
+    pendingByProject.computeIfPresent(
+        project,
+        (p, pending) -> {
+          pending = commitExpired(p, pending, now);
+          bytes[0] = pending == null ? 0 : pending.bytes;
+          return pending;
+        });
+    sweepIfDue(now);
+    return bytes[0];
+  }
+
+  /**
+   * Releases a reservation made by {@link #tryReserve}.
+   *
+   * @return false if the reservation is not pending anymore, e.g. because it was committed
+   */
+  public boolean release(Reservation reservation) {
+    boolean[] released = new boolean[1];
+    long now = System.nanoTime();
+    pendingByProject.computeIfPresent(
+        reservation.project(),
+        (p, pending) -> {
+          pending = commitExpired(p, pending, now);
+          if (pending == null) {
+            return null;
+          }
+          for (Iterator<Reservation> it = pending.reservations.iterator(); it.hasNext(); ) {
+            if (it.next() == reservation) {
+              it.remove();
+              pending.bytes -= reservation.bytes();
+              released[0] = true;
+              break;
+            }
+          }
+          return pending.reservations.isEmpty() ? null : pending;
+        });
+    return released[0];
+  }
+
+  /**
+   * Drops the reservations of the project made before {@code computedSinceNanos}, as they are
+   * included in the repository size computed since then.
+   *
+   * @return the bytes that are still reserved for the project
+   */
+  public long onSizeComputed(Project.NameKey project, long computedSinceNanos) {
+    long[] bytes = new long[1];
+    pendingByProject.computeIfPresent(
+        project,
+        (p, pending) -> {
+          Reservation r;
+          while ((r = pending.reservations.peek()) != null
+              && r.createdNanos() - computedSinceNanos < 0) {
+            pending.reservations.poll();
+            pending.bytes -= r.bytes();
+          }
+          bytes[0] = pending.bytes;
+          return pending.reservations.isEmpty() ? null : pending;
+        });
+    return bytes[0];
+  }
+
+  /** Forgets all reservations of a project, e.g. after it was deleted. */
+  public void forget(Project.NameKey project) {
+    pendingByProject.remove(project);
+  }
+
+  /**
+   * Commits the reservations of the project that outlived their time to live into its cached size.
+   * Committed bytes of a project that is not cached anymore are dropped, as its size is computed
+   * again when it is loaded.
+   *
+   * @return the pending reservations, or null if none are left
+   */
+  private Pending commitExpired(Project.NameKey project, Pending pending, long now) {
+    AtomicLong size = null;
+    Reservation r;
+    while ((r = pending.reservations.peek()) != null && now - r.createdNanos() >= ttlNanos) {
+      if (size == null) {
+        size = cache.get().getIfPresent(project);
+      }
+      if (size != null) {
+        size.addAndGet(r.bytes());
+      }
+      pending.reservations.poll();
+      pending.bytes -= r.bytes();
+    }
+    return pending.reservations.isEmpty() ? null : pending;
+  }
+
+  /** Commits the expired reservations of all projects, at most once per time to live. */
+  private void sweepIfDue(long now) {
+    long next = nextSweep.get();
+    if (now - next < 0 || !nextSweep.compareAndSet(next, now + ttlNanos)) {
+      return;
+    }
+    for (Project.NameKey project : pendingByProject.keySet()) {
+      pendingByProject.computeIfPresent(project, (p, pending) -> commitExpired(p, pending, now));
+    }
+  }
+}
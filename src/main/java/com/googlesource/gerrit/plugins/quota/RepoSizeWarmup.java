@@ -0,0 +1,180 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.googlesource.gerrit.plugins.quota.MaxRepositorySizeQuota.REPO_SIZE_CACHE;
+
+import com.google.common.cache.LoadingCache;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.gerrit.server.git.GitRepositoryManager;
+import com.google.gerrit.server.git.LocalDiskRepositoryManager;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.project.ProjectCache;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.google.inject.name.Named;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Preloads the sizes of all repositories into the {@code repo_size} cache when the plugin starts,
+ * so that the first quota checks and publications don't compute them one after the other.
+ *
+ * <p>Repositories that were pushed to most recently are loaded first, if they are stored on the
+ * local disk.
+ */
+@Singleton
+public class RepoSizeWarmup implements LifecycleListener {
+  private static final Logger log = LoggerFactory.getLogger(RepoSizeWarmup.class);
+  static final String QUEUE_NAME = "RepoSizeWarmup";
+
+  private final WorkQueue workQueue;
+  private final ProjectCache projectCache;
+  private final LoadingCache<Project.NameKey, AtomicLong> cache;
+  private final GitRepositoryManager gitManager;
+  private final int threads;
+  private final Queue<Project.NameKey> pending = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger loaded = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private volatile boolean cancelled;
+  private volatile int total;
+  private long startNanos;
+  private ScheduledExecutorService executor;
+
+  @Inject
+  RepoSizeWarmup(
+      WorkQueue workQueue,
+      ProjectCache projectCache,
+      @Named(REPO_SIZE_CACHE) LoadingCache<Project.NameKey, AtomicLong> cache,
+      GitRepositoryManager gitManager,
+      PluginConfigFactory cfg,
+      @PluginName String pluginName) {
+    this.workQueue = workQueue;
+    this.projectCache = projectCache;
+    this.cache = cache;
+    this.gitManager = gitManager;
+    this.threads = cfg.getFromGerritConfig(pluginName).getInt("warmupThreads", 0);
+  }
+
+  @Override
+  public void start() {
+    if (threads <= 0) {
+      return;
+    }
+    executor = workQueue.createQueue(threads, QUEUE_NAME);
+    executor.execute(this::plan);
+  }
+
+  @Override
+  public void stop() {
+    cancelled = true;
+    if (executor != null) {
+      executor.shutdownNow();
+      if (!pending.isEmpty()) {
+        log.info(
+            "Repository size warm-up cancelled after {} of {} repositories", loaded.get(), total);
+      }
+      pending.clear();
+    }
+  }
+
+  private void plan() {
+    startNanos = System.nanoTime();
+    Map<Project.NameKey, Long> lastPushedByProject = new HashMap<>();
+    for (Project.NameKey p : projectCache.all()) {
+      if (cancelled) {
+        return;
+      }
+      if (cache.getIfPresent(p) == null) {
+        lastPushedByProject.put(p, lastPushed(p));
+      }
+    }
+    if (lastPushedByProject.isEmpty()) {
+      log.info("Repository sizes are already cached, skipping warm-up");
+      return;
+    }
+
+    List<Project.NameKey> missing = new ArrayList<>(lastPushedByProject.keySet());
+    missing.sort(Comparator.comparing(lastPushedByProject::get).reversed());
+    total = missing.size();
+    pending.addAll(missing);
+    log.info("Warming up the sizes of {} repositories using {} threads", total, threads);
+
+    running.set(threads);
+    for (int i = 1; i < threads; i++) {
+      executor.execute(this::load);
+    }
+    load();
+  }
+
+  private void load() {
+    Project.NameKey p;
+    while (!cancelled && (p = pending.poll()) != null) {
+      try {
+        cache.get(p);
+      } catch (Exception e) {
+        log.warn("Couldn't warm up the size of repository {}", p, e);
+      }
+      logProgress(loaded.incrementAndGet());
+    }
+    if (running.decrementAndGet() == 0 && !cancelled) {
+      log.info(
+          "Warmed up the sizes of {} repositories in {} s",
+          loaded.get(),
+          TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos));
+    }
+  }
+
+  private void logProgress(int done) {
+    int step = Math.max(1, total / 10);
+    if (done % step == 0 && done < total) {
+      log.info("Warmed up the sizes of {} of {} repositories", done, total);
+    }
+  }
+
+  /** Returns when a pack was last written to the repository, or 0 if unknown. */
+  private long lastPushed(Project.NameKey p) {
+    if (!(gitManager instanceof LocalDiskRepositoryManager localDisk)) {
+      return 0;
+    }
+    Path basePath = localDisk.getBasePath(p);
+    for (String name : List.of(p.get() + ".git", p.get())) {
+      Path pack = basePath.resolve(name).resolve("objects").resolve("pack");
+      try {
+        return Files.getLastModifiedTime(pack).toMillis();
+      } catch (IOException e) {
+        // Try the next candidate name.
+      }
+    }
+    return 0;
+  }
+}
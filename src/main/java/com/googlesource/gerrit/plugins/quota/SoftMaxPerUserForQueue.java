@@ -20,18 +20,19 @@ import com.google.gerrit.server.git.WorkQueue;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class SoftMaxPerUserForQueue implements TaskQuota {
   public static final String KEY = "softMaxStartPerUserForQueue";
-  public static final Pattern CONFIG_PATTERN =
-      Pattern.compile("(\\d+)\\s+(" + String.join("|", QueueManager.Queue.keys()) + ")");
+  public static final Pattern CONFIG_PATTERN = Pattern.compile("(\\d+)\\s+(\\S+)");
   private final QuotaSection quotaSection;
   private final int softMax;
   private final QueueManager.Queue queue;
   private final ConcurrentHashMap<String, Integer> taskStartedCountByUser =
       new ConcurrentHashMap<>();
+  private final LongAdder borrowedCount = new LongAdder();
 
   public SoftMaxPerUserForQueue(QuotaSection quotaSection, int softMax, String queueName) {
     this.quotaSection = quotaSection;
@@ -39,9 +40,19 @@ public class SoftMaxPerUserForQueue implements TaskQuota {
     this.queue = QueueManager.Queue.fromKey(queueName);
   }
 
+  @Override
+  public Optional<String> managedQueue() {
+    return Optional.of(queue.getName());
+  }
+
+  @Override
+  public Optional<String> queue() {
+    return Optional.of(queue.getName());
+  }
+
   @Override
   public boolean isApplicable(WorkQueue.Task<?> task) {
-    return task.getQueueName().equals(queue.getName());
+    return TaskDescriptor.get(task).queueName().equals(queue.getName());
   }
 
   @Override
@@ -55,9 +66,13 @@ public class SoftMaxPerUserForQueue implements TaskQuota {
                   (key, val) -> {
                     int runningTasks = (val != null) ? val : 0;
 
-                    if (runningTasks < softMax || QueueManager.ensureIdle(queue, 1)) {
+                    if (runningTasks < softMax) {
                       acquired.setPlain(true);
                       ++runningTasks;
+                    } else if (QueueManager.ensureIdle(queue, 1)) {
+                      acquired.setPlain(true);
+                      ++runningTasks;
+                      borrowedCount.increment();
                     }
                     return runningTasks;
                   });
@@ -66,6 +81,11 @@ public class SoftMaxPerUserForQueue implements TaskQuota {
         .orElse(true);
   }
 
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    user(task).ifPresent(user -> taskStartedCountByUser.merge(user, 1, Integer::sum));
+  }
+
   @Override
   public void onStop(WorkQueue.Task<?> task) {
     user(task)
@@ -78,6 +98,11 @@ public class SoftMaxPerUserForQueue implements TaskQuota {
                     }));
   }
 
+  /** Returns the number of tasks started beyond the soft maximum, because threads were idle. */
+  public long getBorrowedCount() {
+    return borrowedCount.sum();
+  }
+
   public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
     Matcher matcher = CONFIG_PATTERN.matcher(cfg);
     return matcher.find()
@@ -0,0 +1,278 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of tasks each user starts for a task and queue combination within a sliding
+ * window of time.
+ *
+ * <p>The start times of the last {@code maxStarts} tasks of a user are kept in a ring buffer of
+ * primitives, so that recording a start doesn't allocate. A task is only admitted if fewer than
+ * {@code maxStarts} of them are within the window. A user is forgotten once all its starts are
+ * older than the window.
+ *
+ * <p>The windows of the users are kept in a concurrent map, and each window is only locked while
+ * it is checked or updated, so that the tasks of different users don't contend.
+ */
+public class StartRatePerUserForTaskForQueue extends TaskQuotaForTaskForQueue {
+  public static final Logger log = LoggerFactory.getLogger(StartRatePerUserForTaskForQueue.class);
+  public static final String KEY = "maxStartRatePerUserForTaskForQueue";
+  // 600/min uploadpack SSH-Batch-Worker
+  public static final Pattern CONFIG_PATTERN =
+      Pattern.compile(
+          "(\\d+)\\s*/\\s*(\\S+)\\s+("
+              + String.join("|", SUPPORTED_TASKS_BY_GROUP.keySet())
+              + ")\\s+(.+)");
+  private static final int NO_TASK = -1;
+
+  private final long windowNanos;
+  private final LongSupplier nanoTime;
+  private final ConcurrentMap<String, StartWindow> windowByUser = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep;
+
+  /**
+   * The start times of the last tasks of a user, oldest first from {@code next - count}. Only
+   * accessed while holding its lock.
+   */
+  private static class StartWindow {
+    final long[] startedAt;
+
+    /** The ids of the tasks that were admitted, but are not started yet, or {@link #NO_TASK}. */
+    final int[] admittedTaskIds;
+
+    int next;
+    int count;
+
+    /** Whether the window was removed from the map, and must not be used anymore. */
+    boolean removed;
+
+    StartWindow(int maxStarts) {
+      startedAt = new long[maxStarts];
+      admittedTaskIds = new int[maxStarts];
+    }
+
+    void expire(long now, long windowNanos) {
+      while (count > 0 && now - startedAt[index(next - count)] >= windowNanos) {
+        count--;
+      }
+    }
+
+    boolean isFull() {
+      return count == startedAt.length;
+    }
+
+    void add(long now, int taskId) {
+      startedAt[next] = now;
+      admittedTaskIds[next] = taskId;
+      next = index(next + 1);
+      count++;
+    }
+
+    void onStart(int taskId) {
+      for (int i = 1; i <= count; i++) {
+        int slot = index(next - i);
+        if (admittedTaskIds[slot] == taskId) {
+          admittedTaskIds[slot] = NO_TASK;
+          return;
+        }
+      }
+    }
+
+    /**
+     * Takes back the start of a task that was admitted but never started, by clearing its slot and
+     * moving the later starts into it.
+     */
+    void undo(int taskId) {
+      for (int i = 1; i <= count; i++) {
+        int slot = index(next - i);
+        if (admittedTaskIds[slot] == taskId) {
+          for (int j = i; j > 1; j--) {
+            int to = index(next - j);
+            int from = index(next - j + 1);
+            startedAt[to] = startedAt[from];
+            admittedTaskIds[to] = admittedTaskIds[from];
+          }
+          next = index(next - 1);
+          admittedTaskIds[next] = NO_TASK;
+          count--;
+          return;
+        }
+      }
+    }
+
+    boolean isEmpty(long now, long windowNanos) {
+      return count == 0 || now - startedAt[index(next - 1)] >= windowNanos;
+    }
+
+    private int index(int i) {
+      return Math.floorMod(i, startedAt.length);
+    }
+  }
+
+  public StartRatePerUserForTaskForQueue(
+      QuotaSection quotaSection,
+      String queueName,
+      String taskGroup,
+      int maxStarts,
+      long windowNanos) {
+    this(quotaSection, queueName, taskGroup, maxStarts, windowNanos, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  StartRatePerUserForTaskForQueue(
+      QuotaSection quotaSection,
+      String queueName,
+      String taskGroup,
+      int maxStarts,
+      long windowNanos,
+      LongSupplier nanoTime) {
+    super(quotaSection, queueName, taskGroup, maxStarts);
+    this.windowNanos = windowNanos;
+    this.nanoTime = nanoTime;
+    this.nextSweep = new AtomicLong(nanoTime.getAsLong() + windowNanos);
+  }
+
+  public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (matcher.matches()) {
+      int maxStarts = Integer.parseInt(matcher.group(1));
+      long windowNanos = parseWindow(matcher.group(2));
+      if (maxStarts > 0 && windowNanos > 0) {
+        return Optional.of(
+            new StartRatePerUserForTaskForQueue(
+                qs, matcher.group(4), matcher.group(3), maxStarts, windowNanos));
+      }
+    }
+    log.error("Invalid configuration entry [{}]", cfg);
+    return Optional.empty();
+  }
+
+  /** Parses a window like {@code min} or {@code 5min}, returning -1 if it is invalid. */
+  private static long parseWindow(String window) {
+    try {
+      return ConfigUtil.getTimeUnit(
+          Character.isDigit(window.charAt(0)) ? window : "1" + window, -1, TimeUnit.NANOSECONDS);
+    } catch (IllegalArgumentException e) {
+      return -1;
+    }
+  }
+
+  @Override
+  public boolean isApplicable(WorkQueue.Task<?> task) {
+    return super.isApplicable(task) && TaskDescriptor.get(task).user().isPresent();
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    long now = nanoTime.getAsLong();
+    sweepIfDue(now);
+
+    String user = TaskDescriptor.get(task).user().get();
+    while (true) {
+      StartWindow window = windowByUser.get(user);
+      if (window == null) {
+        StartWindow created = new StartWindow(maxPermits);
+        window = windowByUser.putIfAbsent(user, created);
+        if (window == null) {
+          window = created;
+        }
+      }
+      synchronized (window) {
+        if (window.removed) {
+          continue;
+        }
+        window.expire(now, windowNanos);
+        if (window.isFull()) {
+          return false;
+        }
+        window.add(now, task.getTaskId());
+        return true;
+      }
+    }
+  }
+
+  /** Forgets the users whose starts are all older than the window, at most once per window. */
+  private void sweepIfDue(long now) {
+    long next = nextSweep.get();
+    if (now - next < 0 || !nextSweep.compareAndSet(next, now + windowNanos)) {
+      return;
+    }
+    for (Map.Entry<String, StartWindow> e : windowByUser.entrySet()) {
+      StartWindow window = e.getValue();
+      synchronized (window) {
+        if (window.isEmpty(now, windowNanos)) {
+          window.removed = true;
+          windowByUser.remove(e.getKey(), window);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {}
+
+  @Override
+  public Optional<Permits> getPermits() {
+    return Optional.empty();
+  }
+
+  @Override
+  public void onStart(WorkQueue.Task<?> task) {
+    StartWindow window = windowByUser.get(TaskDescriptor.get(task).user().get());
+    if (window != null) {
+      synchronized (window) {
+        window.onStart(task.getTaskId());
+      }
+    }
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {
+    // Only a task that another quota refused after this one admitted it stops before it started.
+    StartWindow window = windowByUser.get(TaskDescriptor.get(task).user().get());
+    if (window != null) {
+      synchronized (window) {
+        window.undo(task.getTaskId());
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": task [%s], queue [%s], starts [%d] per [%d ms], namespace [%s]"
+            .formatted(
+                taskGroup,
+                queueName,
+                maxPermits,
+                TimeUnit.NANOSECONDS.toMillis(windowNanos),
+                quotaSection.getNamespace());
+  }
+}
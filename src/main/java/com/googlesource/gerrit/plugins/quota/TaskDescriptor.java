@@ -0,0 +1,96 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The parts of a task that the task quotas are evaluated on, parsed once from the task description.
+ *
+ * <p>The descriptor of a task is cached by {@link TaskQuotas} from the first time the task is
+ * checked until it stops or is not started, so that re-evaluating a parked task doesn't parse its
+ * description again.
+ *
+ * @param queueName the name of the queue the task runs in
+ * @param command the first word of the task description, e.g. {@code git-upload-pack}
+ * @param taskGroup the task group of the command, e.g. {@code uploadpack}
+ * @param project the project estimated from the task description
+ * @param user the user running the task
+ */
+public record TaskDescriptor(
+    String queueName,
+    String command,
+    Optional<String> taskGroup,
+    Optional<Project.NameKey> project,
+    Optional<String> user) {
+  public static final Pattern PROJECT_PATTERN = Pattern.compile("\\s+/?(.*)\\s+(\\(\\S+\\))$");
+  public static final Pattern USER_EXTRACT_PATTERN = Pattern.compile("\\(([a-z0-9]+)\\)$");
+
+  private static final Map<Integer, TaskDescriptor> descriptorByTaskId = new ConcurrentHashMap<>();
+
+  /** Returns the cached descriptor of the task, or parses the task if it is not cached. */
+  public static TaskDescriptor get(WorkQueue.Task<?> task) {
+    TaskDescriptor descriptor = descriptorByTaskId.get(task.getTaskId());
+    return descriptor != null ? descriptor : parse(task);
+  }
+
+  /** Returns the descriptor of the task, parsing and caching it if it is not cached yet. */
+  static TaskDescriptor cache(WorkQueue.Task<?> task) {
+    return descriptorByTaskId.computeIfAbsent(task.getTaskId(), id -> parse(task));
+  }
+
+  static void clear(WorkQueue.Task<?> task) {
+    descriptorByTaskId.remove(task.getTaskId());
+  }
+
+  public static TaskDescriptor parse(WorkQueue.Task<?> task) {
+    String description = task.toString();
+    int space = description.indexOf(' ');
+    String command = space < 0 ? description : description.substring(0, space);
+
+    Optional<String> taskGroup = Optional.empty();
+    for (Map.Entry<String, Set<String>> group :
+        TaskQuotaForTask.SUPPORTED_TASKS_BY_GROUP.entrySet()) {
+      if (group.getValue().stream().anyMatch(description::startsWith)) {
+        taskGroup = Optional.of(group.getKey());
+        break;
+      }
+    }
+
+    Matcher project = PROJECT_PATTERN.matcher(description);
+    Matcher user = USER_EXTRACT_PATTERN.matcher(description);
+    return new TaskDescriptor(
+        task.getQueueName(),
+        command,
+        taskGroup,
+        project.find() ? Optional.of(Project.NameKey.parse(project.group(1))) : Optional.empty(),
+        user.find() ? Optional.of(user.group(1)) : Optional.empty());
+  }
+
+  public boolean isInGroup(String group) {
+    return group.equals(taskGroup.orElse(null));
+  }
+
+  public boolean isRunBy(String name) {
+    return name.equals(user.orElse(null));
+  }
+}
@@ -15,10 +15,44 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
 
 public interface TaskQuota extends WorkQueue.TaskParker {
+  /** The permits held by the running tasks, and the number of permits they may hold. */
+  record Permits(int inUse, int limit) {}
+
   boolean isApplicable(WorkQueue.Task<?> task);
 
+  /** Returns the name of the queue whose threads are tracked by {@link QueueManager} for this. */
+  default Optional<String> managedQueue() {
+    return Optional.empty();
+  }
+
+  /**
+   * Counts a task that is already running against this quota, even if that exceeds it. Used to
+   * move the running tasks over when the quotas are reloaded. Quotas that don't count tasks don't
+   * need to implement this.
+   */
+  default void forceStart(WorkQueue.Task<?> task) {}
+
+  /** Called when an applicable task is parked because its queue has no capacity left for it. */
+  default void onQueueFull(WorkQueue.Task<?> task) {}
+
+  /** Returns the queue this quota is limited to, if any. */
+  default Optional<String> queue() {
+    return Optional.empty();
+  }
+
+  /** Returns the permits of this quota, if it limits the number of running tasks. */
+  default Optional<Permits> getPermits() {
+    return Optional.empty();
+  }
+
+  /** Returns the task group this quota is limited to, if any. */
+  default Optional<String> taskGroup() {
+    return Optional.empty();
+  }
+
   @Override
   default void onNotReadyToStart(WorkQueue.Task<?> task) {}
 
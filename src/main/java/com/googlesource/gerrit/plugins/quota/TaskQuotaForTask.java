@@ -16,6 +16,7 @@ package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.server.git.WorkQueue;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 
 public abstract class TaskQuotaForTask extends TaskQuotaWithPermits {
@@ -28,9 +29,13 @@ public abstract class TaskQuotaForTask extends TaskQuotaWithPermits {
     this.taskGroup = taskGroup;
   }
 
+  @Override
+  public Optional<String> taskGroup() {
+    return Optional.of(taskGroup);
+  }
+
   @Override
   public boolean isApplicable(WorkQueue.Task<?> task) {
-    return SUPPORTED_TASKS_BY_GROUP.get(taskGroup).stream()
-        .anyMatch(t -> task.toString().startsWith(t));
+    return TaskDescriptor.get(task).isInGroup(taskGroup);
   }
 }
@@ -37,9 +37,14 @@ public class TaskQuotaForTaskForQueue extends TaskQuotaForTask {
     this.queueName = queueName;
   }
 
+  @Override
+  public Optional<String> queue() {
+    return Optional.of(queueName);
+  }
+
   @Override
   public boolean isApplicable(WorkQueue.Task<?> task) {
-    return super.isApplicable(task) && task.getQueueName().equals(queueName);
+    return super.isApplicable(task) && TaskDescriptor.get(task).queueName().equals(queueName);
   }
 
   public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
@@ -30,7 +30,6 @@ public class TaskQuotaForTaskForQueueForUser extends TaskQuotaForTaskForQueue {
               + String.join("|", SUPPORTED_TASKS_BY_GROUP.keySet())
               + ")\\s+([a-zA-Z0-9]+)"
               + "\\s+(.+)");
-  public static final Pattern USER_EXTRACT_PATTERN = Pattern.compile("\\(([a-z0-9]+)\\)$");
   private final String user;
 
   public TaskQuotaForTaskForQueueForUser(
@@ -41,8 +40,7 @@ public class TaskQuotaForTaskForQueueForUser extends TaskQuotaForTaskForQueue {
 
   @Override
   public boolean isApplicable(WorkQueue.Task<?> task) {
-    Matcher taskUser = USER_EXTRACT_PATTERN.matcher(task.toString());
-    return taskUser.find() && user.equals(taskUser.group(1)) && super.isApplicable(task);
+    return TaskDescriptor.get(task).isRunBy(user) && super.isApplicable(task);
   }
 
   public static Optional<TaskQuota> build(QuotaSection qs, String config) {
@@ -0,0 +1,84 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The task quotas of a quota section, grouped by the queue and the task group they are limited to.
+ *
+ * <p>For every combination of a queue and a task group that a quota is limited to, the list of the
+ * quotas that may apply to such a task is computed when the index is built. Looking up the quotas
+ * of a task then costs two map lookups and doesn't copy any list. The quotas that are enforced by
+ * {@link QueueManager} instead of being checked for each task are not indexed.
+ */
+class TaskQuotaIndex {
+  private static final String OTHER = "";
+
+  private final ImmutableList<TaskQuota> all;
+  private final ImmutableMap<String, ImmutableMap<String, ImmutableList<TaskQuota>>> byQueue;
+
+  TaskQuotaIndex(List<TaskQuota> quotas) {
+    this.all = ImmutableList.copyOf(quotas);
+
+    Set<String> queues = new LinkedHashSet<>();
+    Set<String> taskGroups = new LinkedHashSet<>();
+    for (TaskQuota quota : quotas) {
+      quota.queue().ifPresent(queues::add);
+      quota.taskGroup().ifPresent(taskGroups::add);
+    }
+    queues.add(OTHER);
+    taskGroups.add(OTHER);
+
+    ImmutableMap.Builder<String, ImmutableMap<String, ImmutableList<TaskQuota>>> byQueue =
+        ImmutableMap.builder();
+    for (String queue : queues) {
+      ImmutableMap.Builder<String, ImmutableList<TaskQuota>> byTaskGroup = ImmutableMap.builder();
+      for (String taskGroup : taskGroups) {
+        ImmutableList<TaskQuota> candidates =
+            quotas.stream()
+                .filter(q -> !(q instanceof MinStartForQueueQuota))
+                .filter(q -> q.queue().map(queue::equals).orElse(true))
+                .filter(q -> q.taskGroup().map(taskGroup::equals).orElse(true))
+                .collect(ImmutableList.toImmutableList());
+        byTaskGroup.put(taskGroup, candidates);
+      }
+      byQueue.put(queue, byTaskGroup.build());
+    }
+    this.byQueue = byQueue.build();
+  }
+
+  /**
+   * Returns the quotas that may apply to the task, in the order they are defined. Each of them must
+   * still be checked with {@link TaskQuota#isApplicable}.
+   */
+  List<TaskQuota> candidates(TaskDescriptor task) {
+    Map<String, ImmutableList<TaskQuota>> byTaskGroup = byQueue.get(task.queueName());
+    if (byTaskGroup == null) {
+      byTaskGroup = byQueue.get(OTHER);
+    }
+    ImmutableList<TaskQuota> candidates = byTaskGroup.get(task.taskGroup().orElse(OTHER));
+    return candidates != null ? candidates : byTaskGroup.get(OTHER);
+  }
+
+  List<TaskQuota> all() {
+    return all;
+  }
+}
@@ -19,18 +19,52 @@ import java.util.function.BiFunction;
 
 public enum TaskQuotaKeys {
   MAX_START_FOR_TASK_FOR_QUEUE(TaskQuotaForTaskForQueue.KEY, TaskQuotaForTaskForQueue::build),
+  MAX_COST_FOR_TASK_FOR_QUEUE(
+      WeightedTaskQuotaForTaskForQueue.KEY,
+      (qs, cfg, services) ->
+          WeightedTaskQuotaForTaskForQueue.build(qs, cfg, services.repoSizes())),
+  ADAPTIVE_MAX_START_FOR_TASK_FOR_QUEUE(
+      AdaptiveTaskQuotaForTaskForQueue.KEY, AdaptiveTaskQuotaForTaskForQueue::build),
   MIN_START_FOR_TASK_FOR_QUEUE(MinStartForQueueQuota.KEY, MinStartForQueueQuota::build),
   MAX_START_FOR_TASK_FOR_USER_FOR_QUEUE(
       TaskQuotaForTaskForQueueForUser.KEY, TaskQuotaForTaskForQueueForUser::build),
   MAX_START_PER_USER_FOR_TASK_FOR_QUEUE(
       TaskQuotaPerUserForTaskForQueue.KEY, TaskQuotaPerUserForTaskForQueue::build),
-  SOFT_MAX_START_FOR_QUEUE_PER_USER(SoftMaxPerUserForQueue.KEY, SoftMaxPerUserForQueue::build);
+  MAX_START_PER_PROJECT_FOR_TASK_FOR_QUEUE(
+      TaskQuotaPerProjectForTaskForQueue.KEY, TaskQuotaPerProjectForTaskForQueue::build),
+  MAX_START_RATE_PER_USER_FOR_TASK_FOR_QUEUE(
+      StartRatePerUserForTaskForQueue.KEY, StartRatePerUserForTaskForQueue::build),
+  SOFT_MAX_START_FOR_QUEUE_PER_USER(SoftMaxPerUserForQueue.KEY, SoftMaxPerUserForQueue::build),
+  FAIR_SHARE_FOR_QUEUE(
+      FairShareForQueue.KEY,
+      (qs, cfg, services) -> FairShareForQueue.build(qs, cfg, services.userGroups())),
+  MAX_PARK_TIME_FOR_QUEUE(MaxParkTimeForQueue.KEY, MaxParkTimeForQueue::build);
+
+  /**
+   * The services that the task quotas depend on.
+   *
+   * @param repoSizes the repository sizes known in memory, or null if the sizes are unknown
+   * @param userGroups resolves the groups of the users, or null if they are unknown
+   */
+  public record Services(RepoSizeSnapshot repoSizes, UserGroups userGroups) {
+    public static final Services NONE = new Services(null, null);
+  }
+
+  /** Builds a task quota from a config entry, with the services that the quotas depend on. */
+  @FunctionalInterface
+  public interface Factory {
+    Optional<TaskQuota> build(QuotaSection qs, String cfg, Services services);
+  }
 
   public final String key;
-  public final BiFunction<QuotaSection, String, Optional<TaskQuota>> processor;
+  public final Factory factory;
 
   TaskQuotaKeys(String key, BiFunction<QuotaSection, String, Optional<TaskQuota>> processor) {
+    this(key, (qs, cfg, services) -> processor.apply(qs, cfg));
+  }
+
+  TaskQuotaKeys(String key, Factory factory) {
     this.key = key;
-    this.processor = processor;
+    this.factory = factory;
   }
 }
@@ -15,6 +15,7 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.extensions.systemstatus.ServerInformation;
+import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.server.util.PluginLogFile;
 import com.google.gerrit.server.util.SystemLog;
 import com.google.inject.Inject;
@@ -23,8 +24,23 @@ import org.apache.log4j.PatternLayout;
 public class TaskQuotaLogFile extends PluginLogFile {
   protected static String NAME = "quota_log";
 
+  private final WorkQueue workQueue;
+
   @Inject
-  public TaskQuotaLogFile(SystemLog systemLog, ServerInformation serverInfo) {
+  public TaskQuotaLogFile(SystemLog systemLog, ServerInformation serverInfo, WorkQueue workQueue) {
     super(systemLog, serverInfo, NAME, new PatternLayout("[%d] %m%n"));
+    this.workQueue = workQueue;
+  }
+
+  @Override
+  public void start() {
+    super.start();
+    ParkedQuotaTransitionLogger.startWriter(workQueue);
+  }
+
+  @Override
+  public void stop() {
+    ParkedQuotaTransitionLogger.stopWriter();
+    super.stop();
   }
 }
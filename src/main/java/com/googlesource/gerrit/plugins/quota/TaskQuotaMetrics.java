@@ -0,0 +1,219 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * The metrics of the task quotas, per queue and per rule.
+ *
+ * <p>A rule is identified by its description in the task quota log, with every run of characters
+ * other than letters, digits, dots, dashes and underscores replaced by an underscore. The gauges
+ * are computed from the current rules when the metrics are read, so that the rules of a reloaded
+ * {@code quota.config} replace the previous ones.
+ */
+class TaskQuotaMetrics {
+  private static final Pattern UNSAFE = Pattern.compile("[^a-zA-Z0-9_.-]+");
+
+  private final LoadingCache<TaskQuota, String> ruleByQuota =
+      CacheBuilder.newBuilder().weakKeys().build(CacheLoader.from(q -> sanitize(q.toString())));
+  private final Map<String, String> fieldByQueue = new ConcurrentHashMap<>();
+
+  private final Counter1<String> admittedCount;
+  private final Counter1<String> parkedCount;
+  private final Counter1<String> ruleAdmittedCount;
+  private final Counter1<String> ruleParkedCount;
+  private final Timer1<String> parkedTime;
+
+  TaskQuotaMetrics(MetricMaker metricMaker, Supplier<List<TaskQuota>> quotas) {
+    Field<String> queueField =
+        Field.ofString("queue", (metadataBuilder, fieldValue) -> {})
+            .description("The queue of the task.")
+            .build();
+    Field<String> ruleField =
+        Field.ofString("rule", (metadataBuilder, fieldValue) -> {})
+            .description("The task quota rule.")
+            .build();
+    Field<String> reservationField =
+        Field.ofString("reservation", (metadataBuilder, fieldValue) -> {})
+            .description("The queue and the namespace of the reservation.")
+            .build();
+
+    admittedCount =
+        metricMaker.newCounter(
+            "task_quota/admitted_count",
+            new Description("Number of tasks admitted by the task quotas")
+                .setRate()
+                .setUnit("tasks"),
+            queueField);
+    parkedCount =
+        metricMaker.newCounter(
+            "task_quota/parked_count",
+            new Description("Number of tasks parked by the task quotas")
+                .setRate()
+                .setUnit("tasks"),
+            queueField);
+    ruleAdmittedCount =
+        metricMaker.newCounter(
+            "task_quota/rule_admitted_count",
+            new Description("Number of tasks admitted by a task quota rule")
+                .setRate()
+                .setUnit("tasks"),
+            ruleField);
+    ruleParkedCount =
+        metricMaker.newCounter(
+            "task_quota/rule_parked_count",
+            new Description("Number of tasks parked by a task quota rule")
+                .setRate()
+                .setUnit("tasks"),
+            ruleField);
+    parkedTime =
+        metricMaker.newTimer(
+            "task_quota/parked_time",
+            new Description("Time tasks were parked before they started")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            queueField);
+    metricMaker.newCallbackMetric(
+        "task_quota/log_dropped_count",
+        Long.class,
+        new Description("Number of task quota log records dropped because the log writer lagged")
+            .setCumulative()
+            .setUnit("records"),
+        ParkedQuotaTransitionLogger::getDroppedCount);
+
+    CallbackMetric1<String, Integer> permitsInUse =
+        metricMaker.newCallbackMetric(
+            "task_quota/permits_in_use",
+            Integer.class,
+            new Description("Permits of a task quota rule held by running tasks")
+                .setGauge()
+                .setUnit("permits"),
+            ruleField);
+    CallbackMetric1<String, Integer> permitLimit =
+        metricMaker.newCallbackMetric(
+            "task_quota/permit_limit",
+            Integer.class,
+            new Description("Permits of a task quota rule that running tasks may hold")
+                .setGauge()
+                .setUnit("permits"),
+            ruleField);
+    CallbackMetric1<String, Long> softMaxBorrowedCount =
+        metricMaker.newCallbackMetric(
+            "task_quota/soft_max_borrowed_count",
+            Long.class,
+            new Description("Number of tasks started beyond a soft maximum on idle threads")
+                .setCumulative()
+                .setUnit("tasks"),
+            ruleField);
+    CallbackMetric1<String, Integer> reservationInUse =
+        metricMaker.newCallbackMetric(
+            "task_quota/reservation_in_use",
+            Integer.class,
+            new Description("Reserved threads of a queue used by running tasks")
+                .setGauge()
+                .setUnit("threads"),
+            reservationField);
+    CallbackMetric1<String, Integer> reservationCapacity =
+        metricMaker.newCallbackMetric(
+            "task_quota/reservation_capacity",
+            Integer.class,
+            new Description("Threads of a queue reserved for a namespace")
+                .setGauge()
+                .setUnit("threads"),
+            reservationField);
+
+    metricMaker.newTrigger(
+        ImmutableSet.of(
+            permitsInUse, permitLimit, softMaxBorrowedCount, reservationInUse, reservationCapacity),
+        () -> {
+          for (TaskQuota quota : quotas.get()) {
+            String rule = rule(quota);
+            quota
+                .getPermits()
+                .ifPresent(
+                    permits -> {
+                      permitsInUse.set(rule, permits.inUse());
+                      permitLimit.set(rule, permits.limit());
+                    });
+            if (quota instanceof SoftMaxPerUserForQueue softMax) {
+              softMaxBorrowedCount.set(rule, softMax.getBorrowedCount());
+            }
+          }
+          QueueManager.infoByQueue.forEach(
+              (queue, info) -> {
+                for (QueueManager.ReservationUsage usage : info.getReservationUsage()) {
+                  String reservation =
+                      sanitize(queue.getName() + "/" + usage.reservation().namespace());
+                  reservationInUse.set(reservation, usage.allocated());
+                  reservationCapacity.set(reservation, usage.reservation().reservedCapacity());
+                }
+              });
+          permitsInUse.prune();
+          permitLimit.prune();
+          softMaxBorrowedCount.prune();
+          reservationInUse.prune();
+          reservationCapacity.prune();
+        });
+  }
+
+  void onAdmitted(WorkQueue.Task<?> task, List<TaskQuota> quotas) {
+    admittedCount.increment(queue(task));
+    for (TaskQuota quota : quotas) {
+      ruleAdmittedCount.increment(rule(quota));
+    }
+  }
+
+  void onParked(WorkQueue.Task<?> task) {
+    parkedCount.increment(queue(task));
+  }
+
+  void onParkedByRule(TaskQuota quota) {
+    ruleParkedCount.increment(rule(quota));
+  }
+
+  void onUnparked(WorkQueue.Task<?> task, long parkedNanos) {
+    parkedTime.record(queue(task), parkedNanos, TimeUnit.NANOSECONDS);
+  }
+
+  private String queue(WorkQueue.Task<?> task) {
+    return fieldByQueue.computeIfAbsent(task.getQueueName(), TaskQuotaMetrics::sanitize);
+  }
+
+  private String rule(TaskQuota quota) {
+    return ruleByQuota.getUnchecked(quota);
+  }
+
+  private static String sanitize(String name) {
+    return UNSAFE.matcher(name).replaceAll("_");
+  }
+}
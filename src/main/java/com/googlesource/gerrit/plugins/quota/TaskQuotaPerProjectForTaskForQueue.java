@@ -0,0 +1,82 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the tasks started for a task and queue combination on each project, so that a single hot
+ * repository can't take all the threads of a queue.
+ *
+ * <p>The project of a task is estimated with {@link TaskQuotas#estimateProject}, and tasks without
+ * a project are not limited.
+ */
+public class TaskQuotaPerProjectForTaskForQueue extends TaskQuotaForTaskForQueue {
+  public static final Logger log =
+      LoggerFactory.getLogger(TaskQuotaPerProjectForTaskForQueue.class);
+  public static final String KEY = "maxStartPerProjectForTaskForQueue";
+  private final PerKeyTaskQuota<Project.NameKey> perProjectTaskQuota;
+
+  public TaskQuotaPerProjectForTaskForQueue(
+      QuotaSection quotaSection, String queue, String taskGroup, int maxStart) {
+    super(quotaSection, queue, taskGroup, maxStart);
+    perProjectTaskQuota = new PerKeyTaskQuota<>(maxStart, TaskQuotas::estimateProject);
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    return perProjectTaskQuota.tryAcquire(task);
+  }
+
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    perProjectTaskQuota.forceAcquire(task);
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {
+    perProjectTaskQuota.release(task);
+  }
+
+  /** Returns the permits of the project that holds the most of them. */
+  @Override
+  public Optional<Permits> getPermits() {
+    return Optional.of(new Permits(perProjectTaskQuota.getMaxInUse(), maxPermits));
+  }
+
+  public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (matcher.matches()) {
+      return Optional.of(
+          new TaskQuotaPerProjectForTaskForQueue(
+              qs, matcher.group(3), matcher.group(2), Integer.parseInt(matcher.group(1))));
+    } else {
+      log.error("Invalid configuration entry [{}]", cfg);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": task [%s], queue [%s], permits [%d], namespace [%s]"
+            .formatted(taskGroup, queueName, maxPermits, quotaSection.getNamespace());
+  }
+}
@@ -23,12 +23,12 @@ import org.slf4j.LoggerFactory;
 public class TaskQuotaPerUserForTaskForQueue extends TaskQuotaForTaskForQueue {
   public static final Logger log = LoggerFactory.getLogger(TaskQuotaPerUserForTaskForQueue.class);
   public static final String KEY = "maxStartPerUserForTaskForQueue";
-  private final PerUserTaskQuota perUserTaskQuota;
+  private final PerKeyTaskQuota<String> perUserTaskQuota;
 
   public TaskQuotaPerUserForTaskForQueue(
       QuotaSection quotaSection, String queue, String taskGroup, int maxStart) {
     super(quotaSection, queue, taskGroup, maxStart);
-    perUserTaskQuota = new PerUserTaskQuota(maxStart);
+    perUserTaskQuota = new PerKeyTaskQuota<>(maxStart, TaskParser::user);
   }
 
   @Override
@@ -36,11 +36,22 @@ public class TaskQuotaPerUserForTaskForQueue extends TaskQuotaForTaskForQueue {
     return perUserTaskQuota.tryAcquire(task);
   }
 
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    perUserTaskQuota.forceAcquire(task);
+  }
+
   @Override
   public void onStop(WorkQueue.Task<?> task) {
     perUserTaskQuota.release(task);
   }
 
+  /** Returns the permits of the user that holds the most of them. */
+  @Override
+  public Optional<Permits> getPermits() {
+    return Optional.of(new Permits(perUserTaskQuota.getMaxInUse(), maxPermits));
+  }
+
   public static Optional<TaskQuota> build(QuotaSection qs, String cfg) {
     Matcher matcher = CONFIG_PATTERN.matcher(cfg);
     if (matcher.matches()) {
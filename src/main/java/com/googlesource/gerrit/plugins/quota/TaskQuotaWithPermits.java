@@ -15,6 +15,7 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import com.google.gerrit.server.git.WorkQueue;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class TaskQuotaWithPermits implements TaskQuota {
@@ -35,7 +36,17 @@ public abstract class TaskQuotaWithPermits implements TaskQuota {
     return false;
   }
 
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    permits.decrementAndGet();
+  }
+
   public void onStop(WorkQueue.Task<?> task) {
     permits.incrementAndGet();
   }
+
+  @Override
+  public Optional<Permits> getPermits() {
+    return Optional.of(new Permits(maxPermits - permits.get(), maxPermits));
+  }
 }
@@ -16,39 +16,108 @@ package com.googlesource.gerrit.plugins.quota;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.config.GerritServerConfig;
 import com.google.gerrit.server.config.ThreadSettingsConfig;
 import com.google.gerrit.server.git.WorkQueue;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.eclipse.jgit.lib.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Parks the tasks that exceed the task quotas of {@code quota.config}.
+ *
+ * <p>When {@code quota.config} changes, the quotas and reservations are rebuilt from the new config
+ * the next time a task is checked, which happens at most once per {@link
+ * #RELOAD_CHECK_INTERVAL_NANOS}. The quotas of a config are kept in one immutable snapshot, which
+ * is swapped atomically, so that checking a task doesn't take a lock. The tasks that are running
+ * keep running: they are moved over to the new quotas and reservations after the swap, and release
+ * them when they stop.
+ *
+ * <p>When a task stops, the capacity it releases is handed over to the tasks parked in its queue:
+ * it is held for the parked task that the queue wakes next, and a task that was not parked is
+ * parked instead of taking it. The woken task is admitted like any other task, so that the queue
+ * and the quotas agree on which tasks run.
+ *
+ * <p>Upload-pack tasks can be rejected: a rejected task is started without acquiring any quota,
+ * and fails with an error for the client when it begins to negotiate. Once {@code maxParkedTasks}
+ * tasks are parked, an upload-pack task that would be parked is rejected with {@link
+ * #MAX_PARKED_TASKS_MSG}. Other tasks can't report an error to the client and are parked as usual.
+ *
+ * <p>A task that stays parked for longer than its maximum park time is ended, as the client has
+ * likely given up on it. An upload-pack task is rejected with {@link #MAX_PARK_TIME_MSG}, and is
+ * started when the queue wakes it next. Other tasks are cancelled silently. The parked tasks are
+ * checked for this at most once per {@link #PARK_TIME_CHECK_INTERVAL_NANOS}, whenever a task is
+ * checked or stops.
+ */
 @Singleton
 public class TaskQuotas implements WorkQueue.TaskParker {
+  private static final Logger log = LoggerFactory.getLogger(TaskQuotas.class);
+  static final long PARK_TIME_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final long RELOAD_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  static final String MAX_PARKED_TASKS_MSG = "Too many requests are waiting, retry later";
+  static final String MAX_PARK_TIME_MSG = "Request waited too long to be served, retry later";
+
+  private final Map<Integer, RunningTask> runningTasks = new ConcurrentHashMap<>();
+  private final Map<Integer, Rejected> rejectedTasks = new ConcurrentHashMap<>();
+  private final ThreadLocal<String> rejection = new ThreadLocal<>();
+  private final Set<String> undiscoveredQueues = ConcurrentHashMap.newKeySet();
   private final QuotaFinder quotaFinder;
-  private final Map<Integer, List<TaskQuota>> quotasByTask = new ConcurrentHashMap<>();
-  private final Map<QuotaSection, List<TaskQuota>> quotasByNamespace = new HashMap<>();
-  private final List<TaskQuota> globalQuotas = new ArrayList<>();
-  private static final Pattern PROJECT_PATTERN = Pattern.compile("\\s+/?(.*)\\s+(\\(\\S+\\))$");
-  private final Config quotaConfig;
+  private final WorkQueue workQueue;
+  private final LongSupplier nanoTime;
+  private final ParkedTasks parkedTasks;
+  private final long defaultMaxParkNanos;
+  private final int maxParkedTasks;
+  private final AtomicLong nextParkTimeCheck;
+  private final AtomicLong nextReloadCheck;
+  private final AtomicReference<Rules> rules;
+  private final TaskQuotaMetrics metrics;
+
+  /** The quotas of one version of {@code quota.config}. */
+  private record Rules(QuotaPolicy policy, boolean hasMaxParkTime) {}
+
+  /** A rejected task that has not stopped yet, and the error to report to its client. */
+  private record Rejected(WorkQueue.Task<?> task, String message) {}
+
+  /** A running task and the quotas it counts against, which belong to the given rules. */
+  private record RunningTask(WorkQueue.Task<?> task, Rules rules, List<TaskQuota> quotas) {}
 
   @Inject
   public TaskQuotas(
       QuotaFinder quotaFinder,
       @GerritServerConfig Config serverCfg,
-      ThreadSettingsConfig threadSettingsConfig) {
+      ThreadSettingsConfig threadSettingsConfig,
+      WorkQueue workQueue,
+      MetricMaker metricMaker) {
     this.quotaFinder = quotaFinder;
-    this.quotaConfig = quotaFinder.getQuotaConfig();
+    this.workQueue = workQueue;
+    this.nanoTime = System::nanoTime;
+    this.parkedTasks = new ParkedTasks(nanoTime);
+    this.defaultMaxParkNanos =
+        ConfigUtil.getTimeUnit(
+            serverCfg, "plugin", "quota", "maxParkTime", 0, TimeUnit.NANOSECONDS);
+    this.maxParkedTasks = serverCfg.getInt("plugin", "quota", "maxParkedTasks", 0);
+    this.nextParkTimeCheck = new AtomicLong(nanoTime.getAsLong());
+    this.nextReloadCheck = new AtomicLong(nanoTime.getAsLong() + RELOAD_CHECK_INTERVAL_NANOS);
+    this.rules = new AtomicReference<>(newRules(quotaFinder.getPolicy()));
+    this.metrics =
+        new TaskQuotaMetrics(metricMaker, () -> rules.get().policy().getAllTaskQuotas());
 
     // Replicating this logic from the core
     int poolSize = threadSettingsConfig.getSshdThreads();
@@ -61,90 +130,451 @@ public class TaskQuotas implements WorkQueue.TaskParker {
     QueueManager.initQueueWithCapacity(QueueManager.Queue.INTERACTIVE, interactiveThreads);
     QueueManager.initQueueWithCapacity(QueueManager.Queue.BATCH, batchThreads);
 
-    initQuotas();
+    initQuotas(rules.get().policy());
   }
 
   @VisibleForTesting
   public TaskQuotas(QuotaFinder quotaFinder, int interactiveThreads, int batchThreads) {
+    this(quotaFinder, interactiveThreads, batchThreads, 0, 0, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  TaskQuotas(
+      QuotaFinder quotaFinder,
+      int interactiveThreads,
+      int batchThreads,
+      long defaultMaxParkNanos,
+      int maxParkedTasks,
+      LongSupplier nanoTime) {
     this.quotaFinder = quotaFinder;
-    this.quotaConfig = quotaFinder.getQuotaConfig();
+    this.workQueue = null;
+    this.nanoTime = nanoTime;
+    this.parkedTasks = new ParkedTasks(nanoTime);
+    this.defaultMaxParkNanos = defaultMaxParkNanos;
+    this.maxParkedTasks = maxParkedTasks;
+    this.nextParkTimeCheck = new AtomicLong(nanoTime.getAsLong());
+    this.nextReloadCheck = new AtomicLong(nanoTime.getAsLong() + RELOAD_CHECK_INTERVAL_NANOS);
+    this.rules = new AtomicReference<>(newRules(quotaFinder.getPolicy()));
+    this.metrics =
+        new TaskQuotaMetrics(
+            new DisabledMetricMaker(), () -> rules.get().policy().getAllTaskQuotas());
 
     QueueManager.initQueueWithCapacity(QueueManager.Queue.INTERACTIVE, interactiveThreads);
     QueueManager.initQueueWithCapacity(QueueManager.Queue.BATCH, batchThreads);
 
-    initQuotas();
+    initQuotas(rules.get().policy());
+  }
+
+  private Rules newRules(QuotaPolicy policy) {
+    return new Rules(
+        policy,
+        defaultMaxParkNanos > 0
+            || policy.getAllTaskQuotas().stream().anyMatch(q -> q instanceof MaxParkTimeForQueue));
+  }
+
+  private void initQuotas(QuotaPolicy policy) {
+    Set<String> queues = new HashSet<>();
+    for (TaskQuota quota : policy.getAllTaskQuotas()) {
+      quota.managedQueue().filter(q -> !QueueManager.isManaged(q)).ifPresent(queues::add);
+    }
+    undiscoveredQueues.clear();
+    for (String queue : queues) {
+      if (!discoverQueue(queue)) {
+        log.warn("Queue {} doesn't exist, its reservations are ignored until it is created", queue);
+        undiscoveredQueues.add(queue);
+      }
+    }
+
+    for (TaskQuota quota : policy.getAllTaskQuotas()) {
+      if (quota instanceof MinStartForQueueQuota minStart
+          && QueueManager.isManaged(minStart.getQueue())) {
+        minStart.register();
+      }
+    }
+  }
+
+  /**
+   * Looks up again the queues of the policy that didn't exist yet, e.g. the queues of plugins that
+   * are loaded after this one, and registers the reservations for those that exist now.
+   */
+  private void discoverQueues(QuotaPolicy policy) {
+    for (String queue : undiscoveredQueues) {
+      if (!discoverQueue(queue)) {
+        continue;
+      }
+      undiscoveredQueues.remove(queue);
+      log.info("Queue {} was created, its reservations now apply", queue);
+      for (TaskQuota quota : policy.getAllTaskQuotas()) {
+        if (quota instanceof MinStartForQueueQuota minStart && minStart.getQueue().equals(queue)) {
+          minStart.register();
+        }
+      }
+    }
+  }
+
+  /**
+   * Rebuilds the quotas and reservations if {@code quota.config} changed, or else looks up the
+   * queues that didn't exist yet. Only one thread checks, at most once per {@link
+   * #RELOAD_CHECK_INTERVAL_NANOS}.
+   */
+  private void reloadIfChanged() {
+    long now = nanoTime.getAsLong();
+    long next = nextReloadCheck.get();
+    if (now - next < 0
+        || !nextReloadCheck.compareAndSet(next, now + RELOAD_CHECK_INTERVAL_NANOS)) {
+      return;
+    }
+
+    Rules current = rules.get();
+    QuotaPolicy latest = quotaFinder.getPolicy();
+    if (latest == current.policy()) {
+      if (!undiscoveredQueues.isEmpty()) {
+        discoverQueues(latest);
+      }
+      return;
+    }
+    if (!rules.compareAndSet(current, newRules(latest))) {
+      return;
+    }
+    QueueManager.clearReservations();
+    initQuotas(latest);
+    for (Integer id : runningTasks.keySet()) {
+      moveToCurrentRules(id);
+    }
+  }
+
+  /**
+   * Moves a running task that was started under earlier rules over to the current ones. A task
+   * that starts while the rules are swapped is moved either by the swap or by its own start, as
+   * both check the rules after the other's update.
+   */
+  private void moveToCurrentRules(int id) {
+    runningTasks.computeIfPresent(
+        id,
+        (i, running) -> {
+          Rules current = rules.get();
+          if (running.rules() == current) {
+            return running;
+          }
+          return new RunningTask(
+              running.task(), current, forceStart(running.task(), current.policy()));
+        });
+  }
+
+  /** Counts a running task against the applicable quotas of the policy. */
+  private List<TaskQuota> forceStart(WorkQueue.Task<?> task, QuotaPolicy policy) {
+    List<TaskQuota> quotas = new ArrayList<>();
+    forEachApplicable(
+        task,
+        TaskDescriptor.get(task),
+        policy,
+        quota -> {
+          quota.forceStart(task);
+          quotas.add(quota);
+        });
+    return quotas;
+  }
+
+  private void forEachApplicable(
+      WorkQueue.Task<?> task,
+      TaskDescriptor descriptor,
+      QuotaPolicy current,
+      Consumer<TaskQuota> action) {
+    for (TaskQuota quota : current.getGlobalTaskQuotas(descriptor)) {
+      if (quota.isApplicable(task)) {
+        action.accept(quota);
+      }
+    }
+    if (descriptor.project().isPresent()) {
+      for (TaskQuota quota : current.getTaskQuotas(descriptor.project().get(), descriptor)) {
+        if (quota.isApplicable(task)) {
+          action.accept(quota);
+        }
+      }
+    }
   }
 
-  private void initQuotas() {
-    quotasByNamespace.putAll(
-        quotaFinder.getQuotaNamespaces(quotaConfig).stream()
-            .collect(Collectors.toMap(Function.identity(), QuotaSection::getAllQuotas)));
-    globalQuotas.addAll(quotaFinder.getGlobalNamespacedQuota(quotaConfig).getAllQuotas());
+  private boolean discoverQueue(String queue) {
+    WorkQueue.Executor executor = workQueue != null ? workQueue.getExecutor(queue) : null;
+    if (executor == null) {
+      return false;
+    }
+    QueueManager.initQueueWithCapacity(
+        QueueManager.Queue.fromKey(queue), executor.getCorePoolSize());
+    return true;
   }
 
   @Override
   public boolean isReadyToStart(WorkQueue.Task<?> task) {
-    if (!QueueManager.acquire(task)) {
-      ParkedQuotaTransitionLogger.logTaskWithNoSatisfyingReservation(task);
+    reloadIfChanged();
+    if (rejectedTasks.containsKey(task.getTaskId())) {
+      return true;
+    }
+
+    boolean started = parkedTasks.mayStart(task) && start(task);
+    if (!started) {
+      if (maxParkedTasks > 0
+          && !parkedTasks.isParked(task)
+          && parkedTasks.size() >= maxParkedTasks
+          && canReject(task)) {
+        ParkedQuotaTransitionLogger.logTaskRejectedWithMaxParkedTasks(task, maxParkedTasks);
+        rejectedTasks.put(task.getTaskId(), new Rejected(task, MAX_PARKED_TASKS_MSG));
+        started = true;
+      } else if (parkedTasks.park(task)) {
+        metrics.onParked(task);
+      }
+    }
+    checkTasks();
+    return started;
+  }
+
+  /** Returns whether the task can report a rejection to the client, see {@link #getRejection}. */
+  private static boolean canReject(WorkQueue.Task<?> task) {
+    return TaskDescriptor.get(task).isInGroup("uploadpack");
+  }
+
+  /**
+   * Returns the error to report to the client of the task running in the current thread, if it was
+   * rejected when it was admitted.
+   */
+  public Optional<String> getRejection() {
+    return Optional.ofNullable(rejection.get());
+  }
+
+  /** Starts the task, unless it exceeds the quotas. Returns true if the task is started. */
+  private boolean start(WorkQueue.Task<?> task) {
+    int id = task.getTaskId();
+    if (runningTasks.containsKey(id)) {
+      return true;
+    }
+
+    Rules current = rules.get();
+    RunningTask running =
+        runningTasks.computeIfAbsent(
+            id,
+            i -> {
+              List<TaskQuota> acquiredQuotas = tryStart(task, current.policy());
+              return acquiredQuotas != null ? new RunningTask(task, current, acquiredQuotas) : null;
+            });
+    if (running == null) {
       return false;
     }
+    if (rules.get() != current) {
+      moveToCurrentRules(id);
+    }
 
-    Optional<Project.NameKey> estimatedProject = estimateProject(task);
-    List<TaskQuota> applicableQuotas = new ArrayList<>(globalQuotas);
-    applicableQuotas.addAll(
-        estimatedProject
-            .map(
-                project -> {
-                  return quotasByNamespace.getOrDefault(
-                      Optional.ofNullable(quotaFinder.firstMatching(quotaConfig, project))
-                          .orElse(quotaFinder.getFallbackNamespacedQuota(quotaConfig)),
-                      List.of());
-                })
-            .orElse(List.of()));
+    metrics.onAdmitted(task, running.quotas());
+    long parkedNanos = parkedTasks.getParkedNanos(task);
+    if (parkedNanos >= 0) {
+      metrics.onUnparked(task, parkedNanos);
+    }
+    parkedTasks.remove(task);
+    return true;
+  }
+
+  /** Returns the quotas acquired for the task, or null if it exceeds the quotas. */
+  private List<TaskQuota> tryStart(WorkQueue.Task<?> task, QuotaPolicy current) {
+    TaskDescriptor descriptor = TaskDescriptor.cache(task);
+    if (!QueueManager.acquire(task)) {
+      ParkedQuotaTransitionLogger.logTaskWithNoSatisfyingReservation(task);
+      forEachApplicable(task, descriptor, current, quota -> quota.onQueueFull(task));
+      return null;
+    }
 
     List<TaskQuota> acquiredQuotas = new ArrayList<>();
-    for (TaskQuota quota : applicableQuotas) {
+    Optional<Project.NameKey> estimatedProject = descriptor.project();
+    if (!acquire(task, current.getGlobalTaskQuotas(descriptor), acquiredQuotas)
+        || (estimatedProject.isPresent()
+            && !acquire(
+                task, current.getTaskQuotas(estimatedProject.get(), descriptor), acquiredQuotas))) {
+      QueueManager.release(task);
+      acquiredQuotas.forEach(q -> q.onStop(task));
+      return null;
+    }
+
+    if (parkedTasks.isParked(task)) {
+      ParkedQuotaTransitionLogger.logOnTaskStartIfParked(task);
+    }
+    return acquiredQuotas;
+  }
+
+  /** Holds the capacity released in the queue for the task parked in it that is woken next. */
+  private void handOver(String queue) {
+    if (QueueManager.ensureIdle(QueueManager.Queue.fromKey(queue), 1)) {
+      parkedTasks.release(queue);
+    }
+  }
+
+  /**
+   * Forgets the rejected and parked tasks that were cancelled before they started, and ends the
+   * parked tasks that exceeded their maximum park time. Runs at most once per {@link
+   * #PARK_TIME_CHECK_INTERVAL_NANOS}.
+   */
+  private void checkTasks() {
+    boolean hasMaxParkTime = rules.get().hasMaxParkTime();
+    if (!hasMaxParkTime && rejectedTasks.isEmpty() && parkedTasks.size() == 0) {
+      return;
+    }
+    long now = nanoTime.getAsLong();
+    long next = nextParkTimeCheck.get();
+    if (now - next < 0
+        || !nextParkTimeCheck.compareAndSet(next, now + PARK_TIME_CHECK_INTERVAL_NANOS)) {
+      return;
+    }
+
+    for (Rejected rejected : rejectedTasks.values()) {
+      if (isEnded(rejected.task())) {
+        rejectedTasks.remove(rejected.task().getTaskId());
+        TaskDescriptor.clear(rejected.task());
+      }
+    }
+    for (ParkedTasks.ParkedTask parked : parkedTasks.all()) {
+      if (isEnded(parked.task())) {
+        forgetParked(parked.task());
+      }
+    }
+    if (hasMaxParkTime) {
+      cancelTasksParkedTooLong(now);
+    }
+  }
+
+  private static boolean isEnded(WorkQueue.Task<?> task) {
+    WorkQueue.Task.State state = task.getState();
+    return state == WorkQueue.Task.State.CANCELLED || state == WorkQueue.Task.State.DONE;
+  }
+
+  /**
+   * Ends the parked tasks that exceeded their maximum park time: rejects those that can report it
+   * to the client, and cancels the others.
+   */
+  private void cancelTasksParkedTooLong(long now) {
+    for (ParkedTasks.ParkedTask parked : parkedTasks.all()) {
+      long parkedNanos = now - parked.parkedAt();
+      long maxParkNanos = getMaxParkNanos(parked.task());
+      if (maxParkNanos > 0 && parkedNanos > maxParkNanos) {
+        if (canReject(parked.task())) {
+          ParkedQuotaTransitionLogger.logTaskRejectedAfterMaxParkTime(parked.task(), parkedNanos);
+          rejectedTasks.put(
+              parked.task().getTaskId(), new Rejected(parked.task(), MAX_PARK_TIME_MSG));
+          parkedTasks.remove(parked.task());
+        } else {
+          ParkedQuotaTransitionLogger.logTaskCancelledAfterMaxParkTime(parked.task(), parkedNanos);
+          cancel(parked.task());
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the shortest maximum park time of the rules that apply to the task, the default one if
+   * none does, or 0 if the task may stay parked indefinitely.
+   */
+  private long getMaxParkNanos(WorkQueue.Task<?> task) {
+    QuotaPolicy current = rules.get().policy();
+    TaskDescriptor descriptor = TaskDescriptor.get(task);
+    List<TaskQuota> quotas = new ArrayList<>(current.getGlobalTaskQuotas(descriptor));
+    descriptor.project().ifPresent(p -> quotas.addAll(current.getTaskQuotas(p, descriptor)));
+
+    long maxParkNanos = Long.MAX_VALUE;
+    for (TaskQuota quota : quotas) {
+      if (quota instanceof MaxParkTimeForQueue maxParkTime) {
+        long nanos = maxParkTime.getMaxParkNanos(task);
+        if (nanos > 0) {
+          maxParkNanos = Math.min(maxParkNanos, nanos);
+        }
+      }
+    }
+    return maxParkNanos != Long.MAX_VALUE ? maxParkNanos : defaultMaxParkNanos;
+  }
+
+  /** Cancels a task that was not started, and forgets about it. */
+  private void cancel(WorkQueue.Task<?> task) {
+    if (runningTasks.containsKey(task.getTaskId())) {
+      return;
+    }
+    task.cancel(false);
+    rejectedTasks.remove(task.getTaskId());
+    forgetParked(task);
+  }
+
+  /**
+   * Forgets a parked task that won't be woken, so that the release held for it in its queue is
+   * dropped.
+   */
+  private void forgetParked(WorkQueue.Task<?> task) {
+    parkedTasks.remove(task);
+    ParkedQuotaTransitionLogger.clear(task);
+    TaskDescriptor.clear(task);
+  }
+
+  /** Returns for how long capacity released in the queue stayed unused while tasks were parked. */
+  ParkedTasks.IdleTime getIdleTime(String queue) {
+    return parkedTasks.getIdleTime(queue);
+  }
+
+  private boolean acquire(
+      WorkQueue.Task<?> task, List<TaskQuota> quotas, List<TaskQuota> acquiredQuotas) {
+    for (TaskQuota quota : quotas) {
       if (quota.isApplicable(task)) {
         if (!quota.isReadyToStart(task)) {
+          if (!parkedTasks.isParked(task)) {
+            metrics.onParkedByRule(quota);
+          }
           ParkedQuotaTransitionLogger.logTaskWithEnforcedQuota(task, quota);
-          QueueManager.release(task);
-          acquiredQuotas.forEach(q -> q.onStop(task));
           return false;
         }
         acquiredQuotas.add(quota);
       }
     }
-
-    if (!acquiredQuotas.isEmpty()) {
-      quotasByTask.put(task.getTaskId(), acquiredQuotas);
-    }
-
-    ParkedQuotaTransitionLogger.logOnTaskStartIfParked(task);
     return true;
   }
 
   @Override
   public void onNotReadyToStart(WorkQueue.Task<?> task) {
-    QueueManager.release(task);
-    ParkedQuotaTransitionLogger.clear(task);
-    Optional.ofNullable(quotasByTask.remove(task.getTaskId()))
-        .ifPresent(quotas -> quotas.forEach(q -> q.onStop(task)));
+    stop(task);
   }
 
   @Override
-  public void onStart(WorkQueue.Task<?> task) {}
+  public void onStart(WorkQueue.Task<?> task) {
+    Rejected rejected = rejectedTasks.get(task.getTaskId());
+    if (rejected != null) {
+      rejection.set(rejected.message());
+      return;
+    }
+    RunningTask running = runningTasks.get(task.getTaskId());
+    if (running != null) {
+      running.quotas().forEach(q -> q.onStart(task));
+    }
+    long idleNanos = parkedTasks.onStart(task.getQueueName());
+    if (idleNanos >= 0) {
+      ParkedQuotaTransitionLogger.logReleasedCapacityUnused(task, idleNanos);
+    }
+  }
 
   @Override
   public void onStop(WorkQueue.Task<?> task) {
+    rejection.remove();
+    stop(task);
+  }
+
+  private void stop(WorkQueue.Task<?> task) {
+    if (rejectedTasks.remove(task.getTaskId()) != null) {
+      TaskDescriptor.clear(task);
+      return;
+    }
     QueueManager.release(task);
-    ParkedQuotaTransitionLogger.clear(task);
-    Optional.ofNullable(quotasByTask.remove(task.getTaskId()))
-        .ifPresent(quotas -> quotas.forEach(q -> q.onStop(task)));
+    if (parkedTasks.isParked(task)) {
+      ParkedQuotaTransitionLogger.clear(task);
+    }
+    parkedTasks.remove(task);
+    Optional.ofNullable(runningTasks.remove(task.getTaskId()))
+        .ifPresent(running -> running.quotas().forEach(q -> q.onStop(task)));
+    handOver(task.getQueueName());
+    TaskDescriptor.clear(task);
+    checkTasks();
   }
 
   public static Optional<Project.NameKey> estimateProject(WorkQueue.Task<?> task) {
-    Matcher matcher = PROJECT_PATTERN.matcher(task.toString());
-
-    return matcher.find() ? Optional.of(Project.NameKey.parse(matcher.group(1))) : Optional.empty();
+    return TaskDescriptor.get(task).project();
   }
 }
@@ -0,0 +1,26 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import java.util.Optional;
+
+/** Resolves the groups of the users that run tasks, who are only known by their user names. */
+public interface UserGroups {
+  /**
+   * Returns the first of the given group names that the user with the given user name is a member
+   * of, if any.
+   */
+  Optional<String> firstMatching(String userName, Iterable<String> groupNames);
+}
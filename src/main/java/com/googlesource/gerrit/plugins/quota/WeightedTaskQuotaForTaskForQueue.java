@@ -0,0 +1,162 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.eclipse.jgit.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the total cost of the tasks started for a task and queue combination, where a task costs
+ * one permit plus one for every {@code permitSize} bytes of the repository it runs on.
+ *
+ * <p>The size of the repository is taken from the sizes known in memory, see {@link
+ * RepoSizeSnapshot}: admitting a task never waits for a repository to be measured, nor for the
+ * persistent {@code repo_size} cache to be read. A task on a repository of unknown size costs one
+ * permit. A task never costs more than all permits, so that a
+ * task on a huge repository can still run on its own.
+ *
+ * <p>So that a task costing several permits isn't starved by cheaper tasks that keep taking the
+ * permits as they are released, the oldest such task that was refused holds back the other tasks:
+ * they are only admitted if the permits it needs stay available. This leaves permits unused until
+ * enough of them are released for it. The task holds them back for as long as it was refused in
+ * the last {@link #WAITING_EXPIRY_NANOS}, so that a task that is cancelled while parked doesn't
+ * hold them back for good.
+ */
+public class WeightedTaskQuotaForTaskForQueue extends TaskQuotaForTaskForQueue {
+  public static final Logger log = LoggerFactory.getLogger(WeightedTaskQuotaForTaskForQueue.class);
+  public static final String KEY = "maxCostForTaskForQueue";
+  // 64 1g uploadpack SSH-Interactive-Worker
+  public static final Pattern CONFIG_PATTERN =
+      Pattern.compile(
+          "(\\d+)\\s+(\\d+[kKmMgG]?)\\s+("
+              + String.join("|", SUPPORTED_TASKS_BY_GROUP.keySet())
+              + ")\\s+(.+)");
+
+  static final long WAITING_EXPIRY_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+  private final RepoSizeSnapshot repoSizes;
+  private final long permitSize;
+  private final Map<Integer, Integer> costByTaskId = new ConcurrentHashMap<>();
+  private final AtomicReference<Waiter> waiter = new AtomicReference<>();
+
+  /** The oldest refused task costing several permits, and when it was last refused. */
+  private record Waiter(int taskId, int cost, long refusedAt) {}
+
+  public WeightedTaskQuotaForTaskForQueue(
+      QuotaSection quotaSection,
+      String queueName,
+      String taskGroup,
+      int maxCost,
+      long permitSize,
+      RepoSizeSnapshot repoSizes) {
+    super(quotaSection, queueName, taskGroup, maxCost);
+    this.permitSize = permitSize;
+    this.repoSizes = repoSizes;
+  }
+
+  public static Optional<TaskQuota> build(
+      QuotaSection qs, String cfg, RepoSizeSnapshot repoSizes) {
+    Matcher matcher = CONFIG_PATTERN.matcher(cfg);
+    if (matcher.matches()) {
+      long permitSize = StringUtils.parseLongWithSuffix(matcher.group(2), false);
+      if (permitSize > 0) {
+        return Optional.of(
+            new WeightedTaskQuotaForTaskForQueue(
+                qs,
+                matcher.group(4),
+                matcher.group(3),
+                Integer.parseInt(matcher.group(1)),
+                permitSize,
+                repoSizes));
+      }
+    }
+    log.error("Invalid configuration entry [{}]", cfg);
+    return Optional.empty();
+  }
+
+  @Override
+  public boolean isReadyToStart(WorkQueue.Task<?> task) {
+    int cost = cost(task);
+    long now = System.nanoTime();
+    Waiter current = waiter.get();
+    if (current != null && now - current.refusedAt() > WAITING_EXPIRY_NANOS) {
+      waiter.compareAndSet(current, null);
+      current = null;
+    }
+    boolean isWaiter = current != null && current.taskId() == task.getTaskId();
+    int reserved = current != null && !isWaiter ? current.cost() : 0;
+
+    int available;
+    do {
+      available = permits.get();
+      if (available - reserved < cost) {
+        if (cost > 1 && (current == null || isWaiter)) {
+          waiter.compareAndSet(current, new Waiter(task.getTaskId(), cost, now));
+        }
+        return false;
+      }
+    } while (!permits.compareAndSet(available, available - cost));
+    if (isWaiter) {
+      waiter.compareAndSet(current, null);
+    }
+    costByTaskId.put(task.getTaskId(), cost);
+    return true;
+  }
+
+  @Override
+  public void forceStart(WorkQueue.Task<?> task) {
+    int cost = cost(task);
+    permits.addAndGet(-cost);
+    costByTaskId.put(task.getTaskId(), cost);
+  }
+
+  @Override
+  public void onStop(WorkQueue.Task<?> task) {
+    Integer cost = costByTaskId.remove(task.getTaskId());
+    if (cost != null) {
+      permits.addAndGet(cost);
+    }
+  }
+
+  int cost(WorkQueue.Task<?> task) {
+    Optional<Project.NameKey> project = TaskDescriptor.get(task).project();
+    if (repoSizes == null || project.isEmpty()) {
+      return 1;
+    }
+    OptionalLong size = repoSizes.getIfKnown(project.get());
+    if (size.isEmpty()) {
+      return 1;
+    }
+    return (int) Math.min(maxPermits, 1 + size.getAsLong() / permitSize);
+  }
+
+  @Override
+  public String toString() {
+    return KEY
+        + ": task [%s], queue [%s], permits [%d], permit size [%d], namespace [%s]"
+            .formatted(taskGroup, queueName, maxPermits, permitSize, quotaSection.getNamespace());
+  }
+}
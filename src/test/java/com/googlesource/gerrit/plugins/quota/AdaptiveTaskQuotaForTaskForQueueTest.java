@@ -0,0 +1,131 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.Range;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.PriorityQueue;
+import java.util.Random;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class AdaptiveTaskQuotaForTaskForQueueTest {
+  private static final long IDLE_RUN_NANOS = 1_000_000;
+  private static final int MIN_LIMIT = 1;
+  private static final int MAX_LIMIT = 64;
+
+  private final QuotaSection section = new NamespacedQuotaSection(new Config(), "*");
+  private final Deque<Task<?>> idleTasks = new ArrayDeque<>();
+  private int nextTaskId;
+  private long now;
+
+  private record Completion(long at, Task<?> task) {}
+
+  @Test
+  public void limitConvergesToHostCapacity() {
+    assertThat(simulate(8)).isIn(Range.closed(8, 16));
+  }
+
+  @Test
+  public void limitConvergesWithRunTimesThatDifferPerRepository() {
+    long[] idleRunNanos = new long[20];
+    for (int i = 0; i < idleRunNanos.length; i++) {
+      idleRunNanos[i] = (long) (IDLE_RUN_NANOS * Math.pow(10, 3.0 * i / idleRunNanos.length));
+    }
+    assertThat(simulate(quota(), 8, idleRunNanos)).isIn(Range.closed(8, 16));
+  }
+
+  @Test
+  public void limitFollowsHostCapacity() {
+    AdaptiveTaskQuotaForTaskForQueue quota = quota();
+    simulate(quota, 16);
+    int limit = simulate(quota, 4);
+
+    assertThat(limit).isAtLeast(MIN_LIMIT);
+    assertThat(limit).isAtMost(8);
+  }
+
+  @Test
+  public void invalidBoundsAreRejected() {
+    assertThat(AdaptiveTaskQuotaForTaskForQueue.build(section, "8 4 uploadpack q")).isEmpty();
+    assertThat(AdaptiveTaskQuotaForTaskForQueue.build(section, "0 4 uploadpack q")).isEmpty();
+    assertThat(AdaptiveTaskQuotaForTaskForQueue.build(section, "1 4 uploadpack q")).isPresent();
+  }
+
+  private int simulate(int capacity) {
+    return simulate(quota(), capacity);
+  }
+
+  private AdaptiveTaskQuotaForTaskForQueue quota() {
+    return new AdaptiveTaskQuotaForTaskForQueue(
+        section, "q", "uploadpack", MIN_LIMIT, MAX_LIMIT, () -> now);
+  }
+
+  /**
+   * Runs as many tasks as the quota allows on a host that runs {@code capacity} tasks at full
+   * speed and shares its resources between the tasks beyond that, and returns the final limit.
+   */
+  private int simulate(AdaptiveTaskQuotaForTaskForQueue quota, int capacity) {
+    return simulate(quota, capacity, IDLE_RUN_NANOS);
+  }
+
+  /**
+   * Same as {@link #simulate(AdaptiveTaskQuotaForTaskForQueue, int)}, with tasks spread over
+   * repositories on which they take the given run times on an idle host.
+   */
+  private int simulate(AdaptiveTaskQuotaForTaskForQueue quota, int capacity, long... idleRunNanos) {
+    Random random = new Random(42);
+    PriorityQueue<Completion> running = new PriorityQueue<>((a, b) -> Long.compare(a.at, b.at));
+    for (int i = 0; i < 20_000; i++) {
+      Task<?> task = idleTask(idleRunNanos.length);
+      while (quota.isReadyToStart(task)) {
+        quota.onStart(task);
+        double slowdown = Math.max(1.0, (running.size() + 1) / (double) capacity);
+        long idleNanos = idleRunNanos[task.getTaskId() % idleRunNanos.length];
+        long runNanos = (long) (idleNanos * slowdown * (0.9 + 0.2 * random.nextDouble()));
+        running.add(new Completion(now + runNanos, task));
+        task = idleTask(idleRunNanos.length);
+      }
+      idleTasks.push(task);
+
+      Completion done = running.poll();
+      now = done.at();
+      quota.onStop(done.task());
+      idleTasks.push(done.task());
+    }
+    while (!running.isEmpty()) {
+      quota.onStop(running.poll().task());
+    }
+    return quota.getLimit();
+  }
+
+  private Task<?> idleTask(int repositories) {
+    if (!idleTasks.isEmpty()) {
+      return idleTasks.pop();
+    }
+    Task<?> task = mock(Task.class);
+    int id = nextTaskId++;
+    when(task.getTaskId()).thenReturn(id);
+    when(task.toString())
+        .thenReturn("git-upload-pack /repo-%d (user)".formatted(id % repositories));
+    return task;
+  }
+}
@@ -29,7 +29,10 @@ public class DeletionListenerTest {
   public void testName() throws Exception {
     RepoSizeCache repoSizeCache = mock(RepoSizeCache.class);
     Project.NameKey p = Project.nameKey(MY_PROJECT);
-    DeletionListener classUnderTest = new DeletionListener(repoSizeCache);
+    IncrementalDiskUsage incrementalDiskUsage = mock(IncrementalDiskUsage.class);
+    NamespaceProjectCounts namespaceProjectCounts = mock(NamespaceProjectCounts.class);
+    DeletionListener classUnderTest =
+        new DeletionListener(repoSizeCache, incrementalDiskUsage, namespaceProjectCounts);
 
     ProjectDeletedListener.Event event =
         new ProjectDeletedListener.Event() {
@@ -46,5 +49,7 @@ public class DeletionListenerTest {
     classUnderTest.onProjectDeleted(event);
 
     verify(repoSizeCache).evict(p);
+    verify(incrementalDiskUsage).forget(p);
+    verify(namespaceProjectCounts).remove(p);
   }
 }
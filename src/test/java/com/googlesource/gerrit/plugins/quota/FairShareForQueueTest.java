@@ -0,0 +1,140 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class FairShareForQueueTest {
+  private static final String QUEUE = "SSH-Batch-Worker";
+
+  private final QuotaSection section = new NamespacedQuotaSection(new Config(), "*");
+  private final FairShareForQueue quota = new FairShareForQueue(section, QUEUE, Map.of(), null);
+  private int nextTaskId;
+
+  @Test
+  public void burstIsChargedBeforeTasksStart() {
+    quota.onQueueFull(task("b"));
+
+    assertThat(quota.isReadyToStart(task("a"))).isTrue();
+    assertThat(quota.isReadyToStart(task("a"))).isFalse();
+  }
+
+  @Test
+  public void taskStoppedBeforeStartingIsRefunded() {
+    quota.onQueueFull(task("b"));
+    Task<?> refused = task("a");
+    assertThat(quota.isReadyToStart(refused)).isTrue();
+    Task<?> waiting = task("a");
+    assertThat(quota.isReadyToStart(waiting)).isFalse();
+
+    quota.onStop(refused);
+    assertThat(quota.isReadyToStart(waiting)).isTrue();
+  }
+
+  @Test
+  public void taskRefusedByAnotherQuotaKeepsItsPlace() {
+    Task<?> started = task("a");
+    assertThat(quota.isReadyToStart(started)).isTrue();
+    quota.onStart(started);
+    Task<?> refused = task("b");
+    assertThat(quota.isReadyToStart(refused)).isTrue();
+
+    quota.onStop(refused);
+    assertThat(quota.isReadyToStart(task("a"))).isFalse();
+    assertThat(quota.isReadyToStart(refused)).isTrue();
+  }
+
+  @Test
+  public void startedTaskIsNotRefunded() {
+    quota.onQueueFull(task("b"));
+    Task<?> started = task("a");
+    assertThat(quota.isReadyToStart(started)).isTrue();
+    quota.onStart(started);
+    Task<?> waiting = task("a");
+    assertThat(quota.isReadyToStart(waiting)).isFalse();
+
+    quota.onStop(started);
+    assertThat(quota.isReadyToStart(waiting)).isFalse();
+  }
+
+  @Test
+  public void newUserStartsFromLeastServedActiveUser() {
+    for (int i = 0; i < 3; i++) {
+      Task<?> task = task("a");
+      assertThat(quota.isReadyToStart(task)).isTrue();
+      quota.onStart(task);
+    }
+    quota.onQueueFull(task("b"));
+
+    assertThat(quota.isReadyToStart(task("c"))).isTrue();
+    assertThat(quota.isReadyToStart(task("c"))).isFalse();
+    assertThat(quota.isReadyToStart(task("b"))).isTrue();
+  }
+
+  @Test
+  public void weightIsResolvedFromGroupsOncePerUser() {
+    List<String> resolved = new ArrayList<>();
+    UserGroups userGroups =
+        (user, groups) -> {
+          resolved.add(user);
+          return user.equals("a") ? Optional.of("admins") : Optional.empty();
+        };
+    FairShareForQueue weighted =
+        new FairShareForQueue(
+            section, QUEUE, ImmutableMap.of("admins", 3, "users", 2, "*", 1), userGroups);
+
+    assertThat(weighted.weight("a")).isEqualTo(3);
+    assertThat(weighted.weight("b")).isEqualTo(1);
+    assertThat(weighted.weight("a")).isEqualTo(3);
+    assertThat(resolved).containsExactly("a", "b");
+  }
+
+  @Test
+  public void usersGetTasksInProportionToTheWeightsOfTheirGroups() {
+    FairShareForQueue weighted =
+        new FairShareForQueue(
+            section,
+            QUEUE,
+            Map.of("admins", 3),
+            (user, groups) -> user.equals("a") ? Optional.of("admins") : Optional.empty());
+    weighted.onQueueFull(task("b"));
+    assertThat(weighted.isReadyToStart(task("a"))).isTrue();
+    assertThat(weighted.isReadyToStart(task("b"))).isTrue();
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(weighted.isReadyToStart(task("a"))).isTrue();
+    }
+    assertThat(weighted.isReadyToStart(task("a"))).isFalse();
+  }
+
+  private Task<?> task(String user) {
+    Task<?> task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(nextTaskId++);
+    when(task.getQueueName()).thenReturn(QUEUE);
+    when(task.toString()).thenReturn("git-upload-pack /project (%s)".formatted(user));
+    return task;
+  }
+}
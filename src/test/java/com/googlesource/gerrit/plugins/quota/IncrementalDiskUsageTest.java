@@ -0,0 +1,165 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IncrementalDiskUsageTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("project");
+  private static final long HOUR_AGO = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private IncrementalDiskUsage diskUsage;
+  private Path repo;
+
+  @Before
+  public void setUp() throws IOException {
+    diskUsage = new IncrementalDiskUsage();
+    repo = tmp.newFolder("project.git").toPath();
+    Files.writeString(repo.resolve("HEAD"), "ref: refs/heads/master\n");
+    Files.write(Files.createDirectories(repo.resolve("objects/ab")).resolve("cdef"), new byte[10]);
+    Files.write(
+        Files.createDirectories(repo.resolve("objects/pack")).resolve("pack-1.pack"),
+        new byte[100]);
+    Files.write(
+        Files.createDirectories(repo.resolve("logs/refs/heads")).resolve("master"), new byte[5]);
+    touchDirectories(HOUR_AGO);
+  }
+
+  @Test
+  public void firstScanMatchesFullWalk() throws IOException {
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void newPackIsCounted() throws IOException {
+    diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.write(repo.resolve("objects/pack/pack-2.pack"), new byte[1000]);
+    Files.write(repo.resolve("objects/pack/pack-2.idx"), new byte[50]);
+    touchDirectories(HOUR_AGO + 1000);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void removedLooseObjectIsNotCounted() throws IOException {
+    diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.delete(repo.resolve("objects/ab/cdef"));
+    touchDirectories(HOUR_AGO + 1000);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void appendedReflogIsCounted() throws IOException {
+    diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.write(repo.resolve("logs/refs/heads/master"), new byte[7], StandardOpenOption.APPEND);
+    touchDirectories(HOUR_AGO);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void nestedLogsDirectoryIsNotStatedAgain() throws IOException {
+    Files.write(
+        Files.createDirectories(repo.resolve("refs/heads/logs")).resolve("topic"), new byte[41]);
+    touchDirectories(HOUR_AGO);
+    long before = diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.write(repo.resolve("refs/heads/logs/topic"), new byte[51]);
+    touchDirectories(HOUR_AGO);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo)).isEqualTo(before);
+    assertThat(ParallelDiskUsageWalker.getDiskUsageSequentially(repo)).isEqualTo(before + 10);
+  }
+
+  @Test
+  public void unchangedDirectoriesAreNotStatedAgain() throws IOException {
+    long before = diskUsage.getDiskUsage(PROJECT, repo);
+
+    // Git never rewrites objects in place, so this is only noticed by a full walk.
+    Files.write(repo.resolve("objects/ab/cdef"), new byte[20]);
+    touchDirectories(HOUR_AGO);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo)).isEqualTo(before);
+    assertThat(ParallelDiskUsageWalker.getDiskUsageSequentially(repo)).isEqualTo(before + 10);
+  }
+
+  @Test
+  public void recentlyModifiedDirectoriesAreScannedAgain() throws IOException {
+    touchDirectories(System.currentTimeMillis());
+    diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.write(repo.resolve("objects/ab/cdef"), new byte[20]);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void forgottenRepositoryIsScannedAgain() throws IOException {
+    diskUsage.getDiskUsage(PROJECT, repo);
+
+    Files.write(repo.resolve("objects/ab/cdef"), new byte[20]);
+    touchDirectories(HOUR_AGO);
+    diskUsage.forget(PROJECT);
+
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo))
+        .isEqualTo(ParallelDiskUsageWalker.getDiskUsageSequentially(repo));
+  }
+
+  @Test
+  public void stateOfLeastRecentlyComputedRepositoryIsDropped() throws IOException {
+    Project.NameKey other = Project.nameKey("other");
+    diskUsage = new IncrementalDiskUsage(IncrementalDiskUsage.RACY_MILLIS, 10);
+
+    long size = diskUsage.getDiskUsage(PROJECT, repo);
+    assertThat(diskUsage.isKept(PROJECT)).isTrue();
+    assertThat(diskUsage.getDiskUsage(other, repo)).isEqualTo(size);
+
+    assertThat(diskUsage.isKept(PROJECT)).isFalse();
+    assertThat(diskUsage.isKept(other)).isTrue();
+    assertThat(diskUsage.getDiskUsage(PROJECT, repo)).isEqualTo(size);
+  }
+
+  private void touchDirectories(long millis) throws IOException {
+    try (Stream<Path> paths = Files.walk(repo)) {
+      for (Path p : (Iterable<Path>) paths.filter(Files::isDirectory)::iterator) {
+        Files.setLastModifiedTime(p, FileTime.fromMillis(millis));
+      }
+    }
+  }
+}
@@ -21,16 +21,24 @@ import static com.google.gerrit.server.quota.QuotaResponse.Status.NO_OP;
 import static com.google.gerrit.server.quota.QuotaResponse.Status.OK;
 import static com.googlesource.gerrit.plugins.quota.NamespacedQuotaSection.QUOTA;
 import static com.googlesource.gerrit.plugins.quota.QuotaSection.KEY_MAX_REPO_SIZE;
+import static com.googlesource.gerrit.plugins.quota.QuotaSection.KEY_MAX_TOTAL_SIZE;
 import static org.mockito.Mockito.when;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableSortedSet;
 import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.quota.QuotaRequestContext;
 import com.google.gerrit.server.quota.QuotaResponse;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import javax.servlet.ServletException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
@@ -48,6 +56,7 @@ public class MaxRepositorySizeQuotaTest {
   @Mock ProjectCache projectCache;
   @Mock QuotaRequestContext quotaRequestContext;
   @Mock MaxRepositorySizeQuota.Loader repoSizeLoader;
+  LoadingCache<Project.NameKey, AtomicLong> repoSizeCache;
   MaxRepositorySizeQuota maxRepositorySizeQuota;
 
   private static final Project.NameKey PROJECT_NAME = Project.nameKey("foo");
@@ -55,9 +64,18 @@ public class MaxRepositorySizeQuotaTest {
   @Before
   public void setUp() throws IOException, ServletException {
     when(quotaRequestContext.project()).thenReturn(Optional.of(PROJECT_NAME));
-    LoadingCache<Project.NameKey, AtomicLong> repoSizeCache =
-        CacheBuilder.newBuilder().build(repoSizeLoader);
-    maxRepositorySizeQuota = new MaxRepositorySizeQuota(quotaFinder, repoSizeCache, projectCache);
+    repoSizeCache = CacheBuilder.newBuilder().build(repoSizeLoader);
+    maxRepositorySizeQuota = newMaxRepositorySizeQuota(RepoSizeReservations.DEFAULT_TTL);
+  }
+
+  private MaxRepositorySizeQuota newMaxRepositorySizeQuota(Duration reservationTtl) {
+    RepoSizeReservations reservations =
+        new RepoSizeReservations(reservationTtl, () -> repoSizeCache);
+    return new MaxRepositorySizeQuota(
+        quotaFinder,
+        repoSizeCache,
+        new NamespaceSizeIndex(projectCache, () -> repoSizeCache, reservations),
+        reservations);
   }
 
   @Test
@@ -154,6 +172,182 @@ public class MaxRepositorySizeQuotaTest {
     assertThat(quotaResponse.status().isOk()).isFalse();
   }
 
+  @Test
+  public void requestTokensIsLimitedByNamespaceTotalSize() throws IOException {
+    Project.NameKey otherProject = Project.nameKey("bar");
+    Config config = new Config();
+    config.setLong(QUOTA, "^.*", KEY_MAX_TOTAL_SIZE, 10);
+    when(quotaFinder.firstMatching(PROJECT_NAME))
+        .thenReturn(new NamespacedQuotaSection(config, "^.*"));
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT_NAME, otherProject));
+    when(repoSizeLoader.load(PROJECT_NAME)).thenReturn(new AtomicLong(4));
+    when(repoSizeLoader.load(otherProject)).thenReturn(new AtomicLong(4));
+
+    assertThat(
+            maxRepositorySizeQuota
+                .requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2)
+                .status())
+        .isEqualTo(OK);
+    assertThat(
+            maxRepositorySizeQuota
+                .requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 1)
+                .status())
+        .isEqualTo(ERROR);
+
+    maxRepositorySizeQuota.refill(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(
+            maxRepositorySizeQuota
+                .requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 1)
+                .status())
+        .isEqualTo(OK);
+  }
+
+  @Test
+  public void namespaceTotalSizeFollowsRepoSizeUpdates() throws IOException {
+    Project.NameKey otherProject = Project.nameKey("bar");
+    Config config = new Config();
+    config.setLong(QUOTA, "^.*", KEY_MAX_TOTAL_SIZE, 10);
+    when(quotaFinder.firstMatching(PROJECT_NAME))
+        .thenReturn(new NamespacedQuotaSection(config, "^.*"));
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT_NAME, otherProject));
+    when(repoSizeLoader.load(PROJECT_NAME)).thenReturn(new AtomicLong(4));
+    when(repoSizeLoader.load(otherProject)).thenReturn(new AtomicLong(4));
+
+    QuotaResponse before =
+        maxRepositorySizeQuota.availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext);
+    maxRepositorySizeQuota.set(otherProject, 1);
+    QuotaResponse afterSet =
+        maxRepositorySizeQuota.availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext);
+    maxRepositorySizeQuota.evict(otherProject);
+    QuotaResponse afterEvict =
+        maxRepositorySizeQuota.availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext);
+
+    assertThat(before.availableTokens().get()).isEqualTo(2L);
+    assertThat(afterSet.availableTokens().get()).isEqualTo(5L);
+    assertThat(afterEvict.availableTokens().get()).isEqualTo(6L);
+  }
+
+  @Test
+  public void namespaceTotalSizeIsComputedAgainForNewConfig() throws IOException {
+    Project.NameKey otherProject = Project.nameKey("bar");
+    Config config = new Config();
+    config.setLong(QUOTA, "^.*", KEY_MAX_TOTAL_SIZE, 10);
+    when(quotaFinder.firstMatching(PROJECT_NAME))
+        .thenReturn(new NamespacedQuotaSection(config, "^.*"));
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT_NAME, otherProject));
+    when(repoSizeLoader.load(PROJECT_NAME)).thenReturn(new AtomicLong(4));
+    when(repoSizeLoader.load(otherProject)).thenReturn(new AtomicLong(4));
+
+    QuotaResponse before =
+        maxRepositorySizeQuota.availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext);
+    Config reloaded = new Config();
+    reloaded.setLong(QUOTA, "^.*", KEY_MAX_TOTAL_SIZE, 10);
+    when(quotaFinder.firstMatching(PROJECT_NAME))
+        .thenReturn(new NamespacedQuotaSection(reloaded, "^.*"));
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT_NAME));
+    QuotaResponse after =
+        maxRepositorySizeQuota.availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext);
+
+    assertThat(before.availableTokens().get()).isEqualTo(2L);
+    assertThat(after.availableTokens().get()).isEqualTo(6L);
+  }
+
+  @Test
+  public void concurrentRequestsDoNotExceedRepoSize() throws Exception {
+    setupQuotas(0, 100);
+    ExecutorService executor = Executors.newFixedThreadPool(16);
+    try {
+      List<Future<QuotaResponse>> responses = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        responses.add(
+            executor.submit(
+                () ->
+                    maxRepositorySizeQuota.requestTokens(
+                        REPOSITORY_SIZE_GROUP, quotaRequestContext, 1)));
+      }
+      int ok = 0;
+      for (Future<QuotaResponse> response : responses) {
+        ok += response.get().status() == OK ? 1 : 0;
+      }
+      assertThat(ok).isEqualTo(100);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void refillReleasesReservation() throws IOException {
+    setupQuotas(1, 3);
+
+    assertThat(
+            maxRepositorySizeQuota
+                .requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2)
+                .status())
+        .isEqualTo(OK);
+    assertThat(availableTokens()).isEqualTo(0L);
+
+    maxRepositorySizeQuota.refill(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(availableTokens()).isEqualTo(2L);
+    assertThat(repoSizeCache.getIfPresent(PROJECT_NAME).get()).isEqualTo(1L);
+  }
+
+  @Test
+  public void expiredReservationIsCommittedIntoRepoSize() throws IOException {
+    maxRepositorySizeQuota = newMaxRepositorySizeQuota(Duration.ZERO);
+    setupQuotas(1, 3);
+
+    maxRepositorySizeQuota.requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(availableTokens()).isEqualTo(0L);
+    assertThat(repoSizeCache.getIfPresent(PROJECT_NAME).get()).isEqualTo(3L);
+
+    maxRepositorySizeQuota.refill(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(availableTokens()).isEqualTo(2L);
+  }
+
+  @Test
+  public void expiredReservationIsCommittedByNamespaceTotalSizeCheck() throws IOException {
+    maxRepositorySizeQuota = newMaxRepositorySizeQuota(Duration.ZERO);
+    Project.NameKey otherProject = Project.nameKey("bar");
+    Config config = new Config();
+    config.setLong(QUOTA, "^.*", KEY_MAX_TOTAL_SIZE, 10);
+    when(quotaFinder.firstMatching(PROJECT_NAME))
+        .thenReturn(new NamespacedQuotaSection(config, "^.*"));
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(PROJECT_NAME, otherProject));
+    when(repoSizeLoader.load(PROJECT_NAME)).thenReturn(new AtomicLong(4));
+    when(repoSizeLoader.load(otherProject)).thenReturn(new AtomicLong(4));
+
+    maxRepositorySizeQuota.requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(availableTokens()).isEqualTo(0L);
+    assertThat(repoSizeCache.getIfPresent(PROJECT_NAME).get()).isEqualTo(6L);
+
+    maxRepositorySizeQuota.refill(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+
+    assertThat(availableTokens()).isEqualTo(2L);
+    assertThat(repoSizeCache.getIfPresent(PROJECT_NAME).get()).isEqualTo(4L);
+  }
+
+  @Test
+  public void recomputedSizeSupersedesReservation() throws IOException {
+    setupQuotas(1, 5);
+
+    maxRepositorySizeQuota.requestTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext, 2);
+    maxRepositorySizeQuota.set(PROJECT_NAME, 3);
+
+    assertThat(availableTokens()).isEqualTo(2L);
+  }
+
+  private Long availableTokens() {
+    return maxRepositorySizeQuota
+        .availableTokens(REPOSITORY_SIZE_GROUP, quotaRequestContext)
+        .availableTokens()
+        .get();
+  }
+
   private void setupQuotas(long currentRepoSize, long maxRepoSize) throws IOException {
     Config config = new Config();
     config.setLong(QUOTA, PROJECT_NAME.get(), KEY_MAX_REPO_SIZE, maxRepoSize);
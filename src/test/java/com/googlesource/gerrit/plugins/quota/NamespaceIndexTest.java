@@ -0,0 +1,160 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class NamespaceIndexTest {
+
+  @Test
+  public void exactName() {
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    index.addExact("test/myProject", "exact");
+
+    assertThat(index.first("test/myProject")).isEqualTo("exact");
+    assertThat(index.first("test/myProject/sub")).isNull();
+    assertThat(index.first("test")).isNull();
+  }
+
+  @Test
+  public void prefix() {
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    index.addPrefix("test/", "prefix");
+
+    assertThat(index.first("test/a")).isEqualTo("prefix");
+    assertThat(index.first("test/a/b")).isEqualTo("prefix");
+    assertThat(index.first("test")).isNull();
+    assertThat(index.first("other/a")).isNull();
+  }
+
+  @Test
+  public void forEach() {
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    index.addForEach("test/", "forEach");
+
+    assertThat(index.first("test/a/b")).isEqualTo("forEach");
+    assertThat(index.first("test/a")).isNull();
+    assertThat(index.first("test//b")).isNull();
+  }
+
+  @Test
+  public void firstAddedNamespaceWins() {
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    index.addRegex(Pattern.compile("test/a.*"), "regex");
+    index.addPrefix("test/", "prefix");
+    index.addExact("test/b", "exact");
+
+    assertThat(index.first("test/a")).isEqualTo("regex");
+    assertThat(index.first("test/b")).isEqualTo("prefix");
+  }
+
+  @Test
+  public void allMatchingNamespaces() {
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    index.addRegex(Pattern.compile("test/a.*"), "regex");
+    index.addPrefix("", "all");
+    index.addPrefix("test/", "prefix");
+    index.addExact("test/a", "exact");
+    index.addExact("test/b", "other");
+
+    List<String> matching = new ArrayList<>();
+    index.forEachMatching("test/a", matching::add);
+    assertThat(matching).containsExactly("regex", "all", "prefix", "exact");
+  }
+
+  @Test
+  public void literalPrefixOfRegex() {
+    assertThat(NamespaceIndex.literalPrefix("team/sub/.*")).isEqualTo("team/sub/");
+    assertThat(NamespaceIndex.literalPrefix("team/a.*")).isEqualTo("team/");
+    assertThat(NamespaceIndex.literalPrefix("team/?.*")).isEqualTo("");
+    assertThat(NamespaceIndex.literalPrefix("team/.*|other/.*")).isEqualTo("");
+    assertThat(NamespaceIndex.literalPrefix(".*")).isEqualTo("");
+  }
+
+  @Test
+  public void matchesLikeLinearScan() {
+    Random random = new Random(42);
+    List<String> namespaces = new ArrayList<>();
+    NamespaceIndex<String> index = new NamespaceIndex<>();
+    for (int i = 0; i < 500; i++) {
+      String path = randomPath(random);
+      switch (random.nextInt(4)) {
+        case 0 -> {
+          namespaces.add(path);
+          index.addExact(path, path);
+        }
+        case 1 -> {
+          String n = path + "/*";
+          namespaces.add(n);
+          index.addPrefix(path + "/", n);
+        }
+        case 2 -> {
+          String n = path + "/?/*";
+          namespaces.add(n);
+          index.addForEach(path + "/", n);
+        }
+        default -> {
+          String n = "^" + path + ".*";
+          namespaces.add(n);
+          index.addRegex(Pattern.compile(path + ".*"), n);
+        }
+      }
+    }
+
+    for (int i = 0; i < 5000; i++) {
+      String project = randomPath(random);
+      assertThat(index.first(project)).isEqualTo(firstMatchingLinearly(namespaces, project));
+    }
+  }
+
+  private static String firstMatchingLinearly(List<String> namespaces, String p) {
+    for (String n : namespaces) {
+      if (n.endsWith("/?/*")) {
+        if (p.matches("^" + n.substring(0, n.length() - 3) + "([^/]+)/.*$")) {
+          return n;
+        }
+      } else if (n.endsWith("/*")) {
+        if (p.startsWith(n.substring(0, n.length() - 1))) {
+          return n;
+        }
+      } else if (n.startsWith("^")) {
+        if (p.matches(n.substring(1))) {
+          return n;
+        }
+      } else if (p.equals(n)) {
+        return n;
+      }
+    }
+    return null;
+  }
+
+  private static String randomPath(Random random) {
+    StringBuilder path = new StringBuilder();
+    int segments = 1 + random.nextInt(4);
+    for (int i = 0; i < segments; i++) {
+      if (i > 0) {
+        path.append('/');
+      }
+      path.append((char) ('a' + random.nextInt(3))).append(random.nextInt(3));
+    }
+    return path.toString();
+  }
+}
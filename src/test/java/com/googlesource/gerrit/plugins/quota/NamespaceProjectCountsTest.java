@@ -0,0 +1,82 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.project.ProjectCache;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NamespaceProjectCountsTest {
+  private static final Project.NameKey A1 = Project.nameKey("a/1");
+  private static final Project.NameKey A2 = Project.nameKey("a/2");
+  private static final Project.NameKey B1 = Project.nameKey("b/1");
+
+  private final QuotaSection namespaceA = new NamespacedQuotaSection(new Config(), "a/*");
+  private final QuotaSection global = new GlobalQuotaSection(new Config());
+
+  private ProjectCache projectCache;
+  private NamespaceProjectCounts counts;
+
+  @Before
+  public void setUp() {
+    projectCache = mock(ProjectCache.class);
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(A1, B1));
+    counts = new NamespaceProjectCounts(projectCache);
+  }
+
+  @Test
+  public void countIsComputedOnce() {
+    assertThat(counts.getCount(namespaceA)).isEqualTo(1);
+    assertThat(counts.getCount(namespaceA)).isEqualTo(1);
+
+    verify(projectCache, times(1)).all();
+  }
+
+  @Test
+  public void createdAndDeletedProjectsAreCounted() {
+    counts.getCount(namespaceA);
+    counts.getCount(global);
+
+    counts.add(A2);
+    assertThat(counts.getCount(namespaceA)).isEqualTo(2);
+    assertThat(counts.getCount(global)).isEqualTo(3);
+
+    counts.remove(B1);
+    assertThat(counts.getCount(namespaceA)).isEqualTo(2);
+    assertThat(counts.getCount(global)).isEqualTo(2);
+  }
+
+  @Test
+  public void projectIsCountedOnceWhenReportedAfterCounting() {
+    counts.getCount(namespaceA);
+    when(projectCache.all()).thenReturn(ImmutableSortedSet.of(A1, A2, B1));
+
+    assertThat(counts.getCount(global)).isEqualTo(3);
+    assertThat(counts.getCount(namespaceA)).isEqualTo(2);
+
+    counts.add(A2);
+    assertThat(counts.getCount(namespaceA)).isEqualTo(2);
+    assertThat(counts.getCount(global)).isEqualTo(3);
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ParallelDiskUsageWalkerTest {
+  private static final Logger log = LoggerFactory.getLogger(ParallelDiskUsageWalkerTest.class);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final List<ParallelDiskUsageWalker> walkers = new ArrayList<>();
+
+  @After
+  public void shutdownWalkers() {
+    walkers.forEach(ParallelDiskUsageWalker::shutdown);
+  }
+
+  @Test
+  public void emptyRepository() throws IOException {
+    Path repo = tmp.newFolder("empty.git").toPath();
+
+    assertThat(walker(4).getDiskUsage(repo)).isEqualTo(0);
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void shutdownWalkerRejectsWalks() throws IOException {
+    Path repo = tmp.newFolder("shutdown.git").toPath();
+    ParallelDiskUsageWalker walker = walker(2);
+    walker.shutdown();
+
+    walker.getDiskUsage(repo);
+  }
+
+  @Test
+  public void parallelWalkMatchesSequentialWalk() throws IOException {
+    Path repo = createSyntheticRepository(256, 40, 2000);
+
+    long start = System.nanoTime();
+    long sequential = ParallelDiskUsageWalker.getDiskUsageSequentially(repo);
+    long sequentialMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    start = System.nanoTime();
+    long parallel = walker(8).getDiskUsage(repo);
+    long parallelMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    log.info("Disk usage walk: sequential {} ms, parallel {} ms", sequentialMs, parallelMs);
+    assertThat(parallel).isEqualTo(sequential);
+    assertThat(parallel).isGreaterThan(0);
+  }
+
+  private ParallelDiskUsageWalker walker(int parallelism) {
+    ParallelDiskUsageWalker walker = new ParallelDiskUsageWalker(parallelism);
+    walkers.add(walker);
+    return walker;
+  }
+
+  private Path createSyntheticRepository(int fanOutDirs, int objectsPerDir, int refs)
+      throws IOException {
+    Path repo = tmp.newFolder("synthetic.git").toPath();
+    Files.writeString(repo.resolve("HEAD"), "ref: refs/heads/master\n");
+    Files.writeString(repo.resolve("config"), "[core]\n  bare = true\n");
+
+    Path objects = Files.createDirectories(repo.resolve("objects"));
+    for (int d = 0; d < fanOutDirs; d++) {
+      Path dir = Files.createDirectories(objects.resolve(String.format("%02x", d)));
+      for (int o = 0; o < objectsPerDir; o++) {
+        Files.write(dir.resolve(String.format("%038x", o)), new byte[d + o + 1]);
+      }
+    }
+    Path pack = Files.createDirectories(objects.resolve("pack"));
+    Files.write(pack.resolve("pack-1.pack"), new byte[64 * 1024]);
+    Files.write(pack.resolve("pack-1.idx"), new byte[4 * 1024]);
+
+    for (int r = 0; r < refs; r++) {
+      Path dir =
+          Files.createDirectories(
+              repo.resolve("refs/changes").resolve(String.format("%02d", r % 100)).resolve("" + r));
+      Files.writeString(dir.resolve("1"), String.format("%040x\n", r));
+    }
+    return repo;
+  }
+}
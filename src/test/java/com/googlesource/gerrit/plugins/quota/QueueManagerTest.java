@@ -17,6 +17,7 @@ package com.googlesource.gerrit.plugins.quota;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -24,12 +25,17 @@ import static org.mockito.Mockito.when;
 import com.google.gerrit.server.git.WorkQueue;
 import com.googlesource.gerrit.plugins.quota.QueueManager.Queue;
 import com.googlesource.gerrit.plugins.quota.QueueManager.QueueInfo;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 import org.junit.Before;
 import org.junit.Test;
@@ -69,6 +75,22 @@ public class QueueManagerTest {
     assertTrue("infoByQueue map should remain empty.", QueueManager.infoByQueue.isEmpty());
   }
 
+  @Test
+  public void testAcquire_ArbitraryQueue_RespectsCapacity() {
+    Queue queue = Queue.fromKey("ReceiveCommits");
+    QueueManager.initQueueWithCapacity(queue, 1);
+
+    assertTrue("Queue should be managed.", QueueManager.isManaged("ReceiveCommits"));
+    assertTrue(QueueManager.acquire(createTask(1, "ReceiveCommits")));
+    assertFalse(QueueManager.acquire(createTask(2, "ReceiveCommits")));
+  }
+
+  @Test
+  public void testFromKey_ReturnsSameInstance() {
+    assertSame(Queue.INTERACTIVE, Queue.fromKey(TEST_QUEUE_NAME));
+    assertSame(Queue.fromKey("ReceiveCommits"), Queue.fromKey("ReceiveCommits"));
+  }
+
   @Test
   public void testAcquire_WithinCapacity_Succeeds() {
     QueueManager.initQueueWithCapacity(TEST_QUEUE, MAX_CAPACITY);
@@ -211,6 +233,145 @@ public class QueueManagerTest {
         "The correct number of unique task IDs should be acquired.", MAX_CAPACITY, acquired.size());
   }
 
+  @Test
+  public void testAcquire_ConcurrentReservations_RespectSpareThreads() throws Exception {
+    int threads = 512;
+    int reservations = 50;
+    int maxThreads = 100;
+    QueueManager.initQueueWithCapacity(TEST_QUEUE, maxThreads);
+    for (int i = 0; i < reservations; i++) {
+      int reservation = i;
+      QueueManager.registerReservation(
+          TEST_QUEUE_NAME,
+          new QueueManager.Reservation(1, t -> t.getTaskId() % 100 == reservation, "ns" + i));
+    }
+    QueueInfo info = QueueManager.infoByQueue.get(TEST_QUEUE);
+    int spareThreads = info.spareThreads;
+
+    List<WorkQueue.Task<?>> tasks = new ArrayList<>();
+    for (int i = 0; i < threads * 4; i++) {
+      tasks.add(createTask(i, TEST_QUEUE_NAME));
+    }
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger runningUnreserved = new AtomicInteger();
+    AtomicBoolean exceeded = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      int thread = i;
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                for (int j = 0; j < 200; j++) {
+                  WorkQueue.Task<?> task = tasks.get(thread * 4 + j % 4);
+                  boolean unreserved = task.getTaskId() % 100 >= reservations;
+                  if (QueueManager.acquire(task)) {
+                    if (running.incrementAndGet() > maxThreads
+                        || (unreserved && runningUnreserved.incrementAndGet() > spareThreads)) {
+                      exceeded.set(true);
+                    }
+                    if (unreserved) {
+                      runningUnreserved.decrementAndGet();
+                    }
+                    running.decrementAndGet();
+                    QueueManager.release(task);
+                  }
+                }
+                return null;
+              }));
+    }
+    start.countDown();
+    for (Future<?> f : futures) {
+      f.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    assertFalse("Tasks were admitted beyond the queue capacity.", exceeded.get());
+    assertTrue(info.runningTaskById.isEmpty());
+    assertTrue(info.canAllocate());
+    assertTrue(QueueManager.ensureIdle(TEST_QUEUE, maxThreads));
+  }
+
+  @Test
+  public void testAcquire_ContendedStartsAndStops_NeverOverAdmit() throws Exception {
+    int threads = 64;
+    int maxThreads = 8;
+    QueueManager.initQueueWithCapacity(TEST_QUEUE, maxThreads);
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    CountDownLatch start = new CountDownLatch(1);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      WorkQueue.Task<?> task = createTask(i, TEST_QUEUE_NAME);
+      futures.add(
+          executor.submit(
+              () -> {
+                start.await();
+                for (int j = 0; j < 1000; j++) {
+                  if (QueueManager.acquire(task)) {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.yield();
+                    running.decrementAndGet();
+                    QueueManager.release(task);
+                  }
+                }
+                return null;
+              }));
+    }
+    start.countDown();
+    for (Future<?> f : futures) {
+      f.get(30, TimeUnit.SECONDS);
+    }
+    executor.shutdown();
+
+    assertTrue("At most " + maxThreads + " tasks may run.", maxRunning.get() <= maxThreads);
+    assertTrue(QueueManager.ensureIdle(TEST_QUEUE, maxThreads));
+  }
+
+  @Test
+  public void testRelease_WaitingTaskTakesOverReservation() {
+    QueueManager.initQueueWithCapacity(TEST_QUEUE, 4);
+    QueueManager.registerReservation(
+        TEST_QUEUE_NAME, new QueueManager.Reservation(2, t -> t.getTaskId() < 10, "reserved"));
+    WorkQueue.Task<?> reserved1 = createTask(1, TEST_QUEUE_NAME);
+    WorkQueue.Task<?> reserved2 = createTask(2, TEST_QUEUE_NAME);
+    WorkQueue.Task<?> reserved3 = createTask(3, TEST_QUEUE_NAME);
+    WorkQueue.Task<?> other1 = createTask(11, TEST_QUEUE_NAME);
+    WorkQueue.Task<?> other2 = createTask(12, TEST_QUEUE_NAME);
+
+    assertTrue(QueueManager.acquire(reserved1));
+    assertTrue(QueueManager.acquire(reserved2));
+    assertTrue("Uses a spare thread.", QueueManager.acquire(reserved3));
+    assertTrue(QueueManager.acquire(other1));
+
+    QueueManager.release(reserved1);
+    assertTrue("The third reserved task took over the reservation.", QueueManager.acquire(other2));
+  }
+
+  @Test
+  public void testGetReservationUsage_CountsAllocatedTasks() {
+    QueueManager.initQueueWithCapacity(TEST_QUEUE, 4);
+    QueueManager.registerReservation(
+        TEST_QUEUE_NAME, new QueueManager.Reservation(2, t -> t.getTaskId() < 10, "reserved"));
+    WorkQueue.Task<?> reserved1 = createTask(1, TEST_QUEUE_NAME);
+
+    assertTrue(QueueManager.acquire(reserved1));
+    assertTrue(QueueManager.acquire(createTask(11, TEST_QUEUE_NAME)));
+
+    List<QueueManager.ReservationUsage> usage =
+        QueueManager.infoByQueue.get(TEST_QUEUE).getReservationUsage();
+    assertEquals(1, usage.size());
+    assertEquals("reserved", usage.get(0).reservation().namespace());
+    assertEquals(1, usage.get(0).allocated());
+
+    QueueManager.release(reserved1);
+    usage = QueueManager.infoByQueue.get(TEST_QUEUE).getReservationUsage();
+    assertEquals(0, usage.get(0).allocated());
+  }
+
   private WorkQueue.Task<?> createTask(int id, String queueName) {
     WorkQueue.Task<?> task = mock(WorkQueue.Task.class);
     when(task.getQueueName()).thenReturn(queueName);
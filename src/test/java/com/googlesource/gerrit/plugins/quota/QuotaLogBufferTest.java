@@ -0,0 +1,95 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+
+import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class QuotaLogBufferTest {
+  private final QuotaLogBuffer buffer = new QuotaLogBuffer(4);
+  private final Task<?> task = mock(Task.class);
+  private final TaskQuota quota = mock(TaskQuota.class);
+
+  @Test
+  public void recordsAreDrainedInOrder() {
+    assertThat(buffer.add(1, task, quota, 10, 100)).isTrue();
+    assertThat(buffer.add(2, task, null, 20, 200)).isTrue();
+
+    List<Long> values = new ArrayList<>();
+    assertThat(
+            buffer.drain(
+                (event, t, q, timestamp, value) -> {
+                  assertThat(t).isSameInstanceAs(task);
+                  assertThat(q).isSameInstanceAs(event == 1 ? quota : null);
+                  assertThat(timestamp).isEqualTo(event * 10L);
+                  values.add(value);
+                }))
+        .isEqualTo(2);
+    assertThat(values).containsExactly(100L, 200L).inOrder();
+    assertThat(buffer.drain((event, t, q, timestamp, value) -> values.add(value))).isEqualTo(0);
+  }
+
+  @Test
+  public void recordsAreDroppedAndCountedWhenFull() {
+    for (int i = 0; i < 4; i++) {
+      assertThat(buffer.add(0, task, null, 0, i)).isTrue();
+    }
+    assertThat(buffer.add(0, task, null, 0, 4)).isFalse();
+    assertThat(buffer.add(0, task, null, 0, 5)).isFalse();
+    assertThat(buffer.getDroppedCount()).isEqualTo(2);
+
+    List<Long> values = new ArrayList<>();
+    buffer.drain((event, t, q, timestamp, value) -> values.add(value));
+    assertThat(values).containsExactly(0L, 1L, 2L, 3L).inOrder();
+
+    assertThat(buffer.add(0, task, null, 0, 6)).isTrue();
+    values.clear();
+    buffer.drain((event, t, q, timestamp, value) -> values.add(value));
+    assertThat(values).containsExactly(6L);
+  }
+
+  @Test
+  public void concurrentRecordsAreEitherDrainedOrDropped() throws Exception {
+    QuotaLogBuffer large = new QuotaLogBuffer(1024);
+    AtomicInteger drained = new AtomicInteger();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int j = 0; j < 10_000; j++) {
+                  large.add(0, task, quota, j, j);
+                }
+              });
+      threads.add(thread);
+      thread.start();
+    }
+    while (threads.stream().anyMatch(Thread::isAlive)) {
+      large.drain((event, t, q, timestamp, value) -> drained.incrementAndGet());
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    large.drain((event, t, q, timestamp, value) -> drained.incrementAndGet());
+
+    assertThat(drained.get() + large.getDroppedCount()).isEqualTo(40_000);
+  }
+}
@@ -0,0 +1,101 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import java.util.Optional;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class QuotaPolicyTest {
+
+  @Test
+  public void firstMatchingSectionWins() throws ConfigInvalidException {
+    QuotaPolicy policy =
+        policy(
+            "[quota \"test/*\"]\n  maxProjects = 1\n[quota \"^test/.*\"]\n  maxProjects = 2\n");
+
+    assertThat(policy.firstMatching(Project.nameKey("test/a")).getMaxProjects()).isEqualTo(1);
+    assertThat(policy.firstMatching(Project.nameKey("other/a"))).isNull();
+  }
+
+  @Test
+  public void forEachNamespaceIsResolved() throws ConfigInvalidException {
+    QuotaPolicy policy = policy("[quota \"test/?/*\"]\n  maxRepoSize = 10\n");
+
+    QuotaSection section = policy.firstMatching(Project.nameKey("test/a/b"));
+    assertThat(section.getNamespace()).isEqualTo("test/a/*");
+    assertThat(section.getMaxRepoSize()).isEqualTo(10L);
+  }
+
+  @Test
+  public void invalidPatternIsIgnored() throws ConfigInvalidException {
+    QuotaPolicy policy =
+        policy("[quota \"^test/(\"]\n  maxProjects = 1\n[quota \"test/*\"]\n  maxProjects = 2\n");
+
+    assertThat(policy.firstMatching(Project.nameKey("test/a")).getMaxProjects()).isEqualTo(2);
+  }
+
+  @Test
+  public void taskQuotasOfFallbackApplyToUnmatchedProjects() throws ConfigInvalidException {
+    QuotaPolicy policy =
+        policy(
+            "[quota \"*\"]\n  maxStartForTaskForQueue = 1 uploadpack SSH-Interactive-Worker\n");
+
+    TaskDescriptor task =
+        new TaskDescriptor(
+            "SSH-Interactive-Worker",
+            "git-upload-pack",
+            Optional.of("uploadpack"),
+            Optional.of(Project.nameKey("any")),
+            Optional.empty());
+
+    assertThat(policy.getTaskQuotas(Project.nameKey("any"), task)).hasSize(1);
+    assertThat(policy.getGlobalTaskQuotas(task)).isEmpty();
+  }
+
+  @Test
+  public void taskQuotasAreIndexedByQueueAndTaskGroup() throws ConfigInvalidException {
+    QuotaPolicy policy =
+        policy(
+            "[quota \"*\"]\n"
+                + "  maxStartForTaskForQueue = 1 uploadpack SSH-Interactive-Worker\n"
+                + "  maxStartForTaskForQueue = 1 receivepack SSH-Interactive-Worker\n"
+                + "  maxStartForTaskForQueue = 1 uploadpack SSH-Batch-Worker\n"
+                + "  softMaxStartPerUserForQueue = 1 SSH-Interactive-Worker\n");
+    Project.NameKey project = Project.nameKey("any");
+
+    assertThat(policy.getTaskQuotas(project, task("SSH-Interactive-Worker", "uploadpack")))
+        .hasSize(2);
+    assertThat(policy.getTaskQuotas(project, task("SSH-Batch-Worker", "uploadpack"))).hasSize(1);
+    assertThat(policy.getTaskQuotas(project, task("SSH-Batch-Worker", "receivepack"))).isEmpty();
+    assertThat(policy.getTaskQuotas(project, task("SSH-Interactive-Worker", null))).hasSize(1);
+    assertThat(policy.getTaskQuotas(project, task("ReceiveCommits", "uploadpack"))).isEmpty();
+  }
+
+  private static TaskDescriptor task(String queue, String taskGroup) {
+    return new TaskDescriptor(
+        queue, "command", Optional.ofNullable(taskGroup), Optional.empty(), Optional.empty());
+  }
+
+  private static QuotaPolicy policy(String text) throws ConfigInvalidException {
+    Config cfg = new Config();
+    cfg.fromText(text);
+    return new QuotaPolicy(cfg);
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.metrics.DisabledMetricMaker;
+import com.google.gerrit.server.git.WorkQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+public class RepoSizeRefresherTest {
+  private static final Project.NameKey PROJECT = Project.nameKey("foo");
+
+  private final ScheduledExecutorService queue =
+      Executors.newScheduledThreadPool(1, r -> new Thread(r, RepoSizeRefresher.QUEUE_NAME));
+  private final WorkQueue workQueue = mock(WorkQueue.class);
+  private final AtomicLong size = new AtomicLong(1);
+  private final AtomicReference<String> loadedBy = new AtomicReference<>();
+  private final CountDownLatch loading = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    queue.shutdownNow();
+  }
+
+  @Test
+  public void refreshIsLoadedOnRefresherQueue() throws Exception {
+    RepoSizeRefresher refresher = newRefresher();
+    LoadingCache<Project.NameKey, AtomicLong> cache = newCache(refresher);
+    assertThat(cache.get(PROJECT).get()).isEqualTo(1);
+
+    size.set(2);
+    cache.refresh(PROJECT);
+    assertThat(cache.get(PROJECT).get()).isEqualTo(1);
+
+    loading.countDown();
+    queue.submit(() -> {}).get(10, TimeUnit.SECONDS);
+    assertThat(cache.get(PROJECT).get()).isEqualTo(2);
+    assertThat(loadedBy.get()).isEqualTo(RepoSizeRefresher.QUEUE_NAME);
+  }
+
+  @Test
+  public void stopShutsDownQueue() throws Exception {
+    RepoSizeRefresher refresher = newRefresher();
+    LoadingCache<Project.NameKey, AtomicLong> cache = newCache(refresher);
+    loading.countDown();
+    cache.get(PROJECT);
+    cache.refresh(PROJECT);
+
+    refresher.stop();
+    assertThat(queue.isShutdown()).isTrue();
+
+    size.set(3);
+    cache.refresh(PROJECT);
+    assertThat(cache.get(PROJECT).get()).isEqualTo(1);
+  }
+
+  private RepoSizeRefresher newRefresher() {
+    when(workQueue.createQueue(1, RepoSizeRefresher.QUEUE_NAME)).thenReturn(queue);
+    return new RepoSizeRefresher(workQueue, new DisabledMetricMaker(), 1);
+  }
+
+  private LoadingCache<Project.NameKey, AtomicLong> newCache(RepoSizeRefresher refresher) {
+    return CacheBuilder.newBuilder()
+        .build(
+            new CacheLoader<Project.NameKey, AtomicLong>() {
+              @Override
+              public AtomicLong load(Project.NameKey project) {
+                return new AtomicLong(size.get());
+              }
+
+              @Override
+              public ListenableFuture<AtomicLong> reload(
+                  Project.NameKey project, AtomicLong oldValue) {
+                return refresher.reload(
+                    project,
+                    () -> {
+                      loading.await();
+                      loadedBy.set(Thread.currentThread().getName());
+                      return load(project);
+                    });
+              }
+            });
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class StartRatePerUserForTaskForQueueTest {
+  private static final String QUEUE = "SSH-Batch-Worker";
+  private static final long WINDOW = TimeUnit.MINUTES.toNanos(1);
+
+  private final QuotaSection section = new NamespacedQuotaSection(new Config(), "*");
+  private final StartRatePerUserForTaskForQueue quota =
+      new StartRatePerUserForTaskForQueue(section, QUEUE, "uploadpack", 3, WINDOW, () -> now);
+  private int nextTaskId;
+  private long now;
+
+  @Test
+  public void startsAreLimitedPerWindow() {
+    assertThat(start("ci")).isTrue();
+    now += WINDOW / 2;
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isFalse();
+
+    now += WINDOW / 2;
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isFalse();
+  }
+
+  @Test
+  public void usersAreLimitedSeparately() {
+    for (int i = 0; i < 3; i++) {
+      assertThat(start("ci")).isTrue();
+    }
+    assertThat(start("ci")).isFalse();
+    assertThat(start("user")).isTrue();
+  }
+
+  @Test
+  public void stoppingRunningTaskDoesNotFreeStart() {
+    for (int i = 0; i < 3; i++) {
+      Task<?> task = task("ci");
+      assertThat(quota.isReadyToStart(task)).isTrue();
+      quota.onStart(task);
+      quota.onStop(task);
+    }
+    assertThat(start("ci")).isFalse();
+  }
+
+  @Test
+  public void taskRefusedByOtherQuotaDoesNotCount() {
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isTrue();
+    Task<?> refused = task("ci");
+    assertThat(quota.isReadyToStart(refused)).isTrue();
+    quota.onStop(refused);
+
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isFalse();
+  }
+
+  @Test
+  public void earlierTaskRefusedByOtherQuotaDoesNotCount() {
+    Task<?> refused = task("ci");
+    assertThat(quota.isReadyToStart(refused)).isTrue();
+    now += WINDOW / 2;
+    assertThat(start("ci")).isTrue();
+    quota.onStop(refused);
+
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isTrue();
+    assertThat(start("ci")).isFalse();
+
+    now += WINDOW / 2;
+    assertThat(start("ci")).isFalse();
+  }
+
+  @Test
+  public void windowIsParsed() {
+    assertThat(StartRatePerUserForTaskForQueue.build(section, "600/min uploadpack q")).isPresent();
+    assertThat(StartRatePerUserForTaskForQueue.build(section, "10 / 5s uploadpack q")).isPresent();
+    assertThat(StartRatePerUserForTaskForQueue.build(section, "0/min uploadpack q")).isEmpty();
+    assertThat(StartRatePerUserForTaskForQueue.build(section, "10/fortnight uploadpack q"))
+        .isEmpty();
+  }
+
+  private boolean start(String user) {
+    Task<?> task = task(user);
+    if (!quota.isReadyToStart(task)) {
+      return false;
+    }
+    quota.onStart(task);
+    return true;
+  }
+
+  private Task<?> task(String user) {
+    Task<?> task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(nextTaskId++);
+    when(task.getQueueName()).thenReturn(QUEUE);
+    when(task.toString()).thenReturn("git-upload-pack /project (%s)".formatted(user));
+    return task;
+  }
+}
@@ -0,0 +1,71 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import org.junit.Test;
+
+public class TaskDescriptorTest {
+  private static final String QUEUE = "SSH-Interactive-Worker";
+
+  @Test
+  public void uploadPackTaskIsParsed() {
+    TaskDescriptor descriptor =
+        TaskDescriptor.parse(task(1, "git-upload-pack /project-x (user1)"));
+
+    assertThat(descriptor.queueName()).isEqualTo(QUEUE);
+    assertThat(descriptor.command()).isEqualTo("git-upload-pack");
+    assertThat(descriptor.taskGroup()).hasValue("uploadpack");
+    assertThat(descriptor.project()).hasValue(Project.nameKey("project-x"));
+    assertThat(descriptor.user()).hasValue("user1");
+  }
+
+  @Test
+  public void otherTaskIsParsed() {
+    TaskDescriptor descriptor = TaskDescriptor.parse(task(2, "gerrit ls-projects (USER_A)"));
+
+    assertThat(descriptor.command()).isEqualTo("gerrit");
+    assertThat(descriptor.taskGroup()).isEmpty();
+    assertThat(descriptor.user()).isEmpty();
+  }
+
+  @Test
+  public void cachedDescriptorIsParsedOnce() {
+    Task<?> task = task(3, "git-receive-pack /project-x (user1)");
+
+    TaskDescriptor descriptor = TaskDescriptor.cache(task);
+    assertThat(TaskDescriptor.get(task)).isSameInstanceAs(descriptor);
+    assertThat(TaskDescriptor.cache(task)).isSameInstanceAs(descriptor);
+    verify(task, times(1)).getQueueName();
+
+    TaskDescriptor.clear(task);
+    assertThat(TaskDescriptor.get(task)).isNotSameInstanceAs(descriptor);
+  }
+
+  private static Task<?> task(int id, String taskString) {
+    Task<?> task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(id);
+    when(task.getQueueName()).thenReturn(QUEUE);
+    when(task.toString()).thenReturn(taskString);
+    return task;
+  }
+}
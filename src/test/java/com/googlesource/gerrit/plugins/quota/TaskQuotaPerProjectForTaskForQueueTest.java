@@ -0,0 +1,60 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.server.git.WorkQueue.Task;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Test;
+
+public class TaskQuotaPerProjectForTaskForQueueTest {
+  private static final String QUEUE = "SSH-Interactive-Worker";
+
+  private final TaskQuota quota =
+      TaskQuotaPerProjectForTaskForQueue.build(
+              new NamespacedQuotaSection(new Config(), "*"), "2 uploadpack " + QUEUE)
+          .get();
+  private int nextTaskId;
+
+  @Test
+  public void startsAreLimitedPerProject() {
+    Task<?> hot = task("git-upload-pack /hot (user)");
+    assertThat(quota.isReadyToStart(hot)).isTrue();
+    assertThat(quota.isReadyToStart(task("git-upload-pack /hot (user)"))).isTrue();
+    assertThat(quota.isReadyToStart(task("git-upload-pack /hot (other)"))).isFalse();
+    assertThat(quota.isReadyToStart(task("git-upload-pack /cold (user)"))).isTrue();
+
+    quota.onStop(hot);
+    assertThat(quota.isReadyToStart(task("git-upload-pack /hot (other)"))).isTrue();
+  }
+
+  @Test
+  public void tasksWithoutProjectAreNotLimited() {
+    for (int i = 0; i < 3; i++) {
+      assertThat(quota.isReadyToStart(task("git-upload-pack (user)"))).isTrue();
+    }
+  }
+
+  private Task<?> task(String taskString) {
+    Task<?> task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(nextTaskId++);
+    when(task.getQueueName()).thenReturn(QUEUE);
+    when(task.toString()).thenReturn(taskString);
+    return task;
+  }
+}
@@ -15,14 +15,22 @@
 package com.googlesource.gerrit.plugins.quota;
 
 import static com.googlesource.gerrit.plugins.quota.QueueManager.Queue.INTERACTIVE;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.lib.Config;
 import org.junit.Test;
@@ -35,6 +43,8 @@ public class TaskQuotasTest {
   private static final String PROJECT_X = "project-x";
   private static final String USER_A = "USER_A";
 
+  private long now;
+
   @Test
   public void testMaxStartForTaskForQueue() throws ConfigInvalidException {
     TaskQuotas taskQuotas =
@@ -76,6 +86,352 @@ public class TaskQuotasTest {
     startAndCompleteTask(taskQuotas, u_x_3);
   }
 
+  @Test
+  public void testReloadKeepsPermitsOfRunningTasks() throws ConfigInvalidException {
+    QuotaFinder finder =
+        finder(
+            """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                .formatted(PROJECT_X, INTERACTIVE.getName()));
+    TaskQuotas taskQuotas = new TaskQuotas(finder, 4, 4, 0, 0, () -> now);
+
+    Task<?> u_x_1 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_1));
+    taskQuotas.onStart(u_x_1);
+
+    doReturn(
+            config(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 2 uploadpack %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName())))
+        .when(finder)
+        .getQuotaConfig();
+    now += TaskQuotas.RELOAD_CHECK_INTERVAL_NANOS;
+
+    Task<?> u_x_2 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_2));
+    taskQuotas.onStart(u_x_2);
+
+    Task<?> u_x_3 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_3));
+
+    taskQuotas.onStop(u_x_1);
+    assertTrue(taskQuotas.isReadyToStart(u_x_3));
+  }
+
+  @Test
+  public void testReleasedCapacityIsHeldForWokenParkedTask() throws ConfigInvalidException {
+    TaskQuotas taskQuotas =
+        taskQuotas(
+            4,
+            4,
+            """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                .formatted(PROJECT_X, INTERACTIVE.getName()));
+
+    Task<?> u_x_1 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_1));
+    taskQuotas.onStart(u_x_1);
+
+    Task<?> u_x_2 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_2));
+    Task<?> u_x_3 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_3));
+
+    taskQuotas.onStop(u_x_1);
+
+    Task<?> u_x_4 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_4));
+    assertTrue(taskQuotas.isReadyToStart(u_x_2));
+    assertEquals(0, taskQuotas.getIdleTime(INTERACTIVE.getName()).count());
+    taskQuotas.onStart(u_x_2);
+    assertEquals(1, taskQuotas.getIdleTime(INTERACTIVE.getName()).count());
+    assertFalse(taskQuotas.isReadyToStart(u_x_3));
+  }
+
+  @Test
+  public void testHeldCapacityIsReleasedWhenWokenTaskIsParkedAgain()
+      throws ConfigInvalidException {
+    TaskQuotas taskQuotas =
+        taskQuotas(
+            2,
+            2,
+            """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                .formatted(PROJECT_X, INTERACTIVE.getName()));
+
+    Task<?> u_x_1 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_1));
+    taskQuotas.onStart(u_x_1);
+    Task<?> r_x_1 = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(r_x_1));
+    taskQuotas.onStart(r_x_1);
+
+    Task<?> u_x_2 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_2));
+
+    taskQuotas.onStop(r_x_1);
+    assertFalse(taskQuotas.isReadyToStart(u_x_2));
+
+    Task<?> r_x_2 = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(r_x_2));
+  }
+
+  @Test
+  public void testReleaseHeldForCancelledParkedTaskDoesNotKeepNewTasksOut() throws Exception {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            0,
+            () -> now);
+
+    Task<?> u_x_1 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_1));
+    taskQuotas.onStart(u_x_1);
+    Task<?> u_x_2 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_2));
+    taskQuotas.onStop(u_x_1);
+
+    when(u_x_2.getState()).thenReturn(Task.State.CANCELLED);
+    Task<?> u_x_3 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(u_x_3));
+
+    now += ParkedTasks.HELD_RELEASE_EXPIRY_NANOS + 1;
+    Task<?> u_x_4 = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(u_x_4));
+  }
+
+  @Test
+  public void testFairShareForQueueStartsTasksInProportionToWeights()
+      throws ConfigInvalidException {
+    QuotaFinder finder =
+        spy(new QuotaFinder(null, (user, groups) -> Optional.of(user.replace("user", "group"))));
+    doReturn(
+            config(
+                """
+[global]
+  fairShareForQueue = %s groupa=3 groupb=1
+"""
+                    .formatted(INTERACTIVE.getName())))
+        .when(finder)
+        .getQuotaConfig();
+    TaskQuotas taskQuotas = new TaskQuotas(finder, 1, 1);
+
+    Task<?> running = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, "userb"));
+    assertTrue(taskQuotas.isReadyToStart(running));
+    taskQuotas.onStart(running);
+
+    List<Task<?>> parked = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      parked.add(task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, "userb")));
+    }
+    for (int i = 0; i < 20; i++) {
+      parked.add(task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, "usera")));
+    }
+    for (Task<?> task : parked) {
+      assertFalse(taskQuotas.isReadyToStart(task));
+    }
+
+    StringBuilder started = new StringBuilder();
+    for (int i = 0; i < 12; i++) {
+      taskQuotas.onStop(running);
+      running = parked.stream().filter(taskQuotas::isReadyToStart).findFirst().get();
+      parked.remove(running);
+      taskQuotas.onStart(running);
+      started.append(TaskDescriptor.get(running).user().get().equals("usera") ? 'a' : 'b');
+    }
+    assertEquals("aaabaaabaaab", started.toString());
+  }
+
+  @Test
+  public void testMaxParkTimeForQueueCancelsTasksParkedTooLong() throws ConfigInvalidException {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 receivepack %s
+  maxParkTimeForQueue = 1min %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName(), INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            0,
+            () -> now);
+
+    Task<?> running = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(running));
+    Task<?> first = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(first));
+
+    now += TimeUnit.SECONDS.toNanos(40);
+    Task<?> second = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(second));
+    verify(first, never()).cancel(false);
+
+    now += TimeUnit.SECONDS.toNanos(40);
+    assertFalse(taskQuotas.isReadyToStart(second));
+    verify(first).cancel(false);
+    verify(second, never()).cancel(false);
+  }
+
+  @Test
+  public void testMaxParkTimeForQueueRejectsUploadPackTasksParkedTooLong() throws Exception {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+  maxParkTimeForQueue = 1min %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName(), INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            0,
+            () -> now);
+
+    Task<?> running = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(running));
+    Task<?> parked = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(parked));
+
+    now += TimeUnit.SECONDS.toNanos(80);
+    assertFalse(
+        taskQuotas.isReadyToStart(task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A))));
+    verify(parked, never()).cancel(false);
+
+    assertTrue(taskQuotas.isReadyToStart(parked));
+    RejectedTaskUploadListener listener = new RejectedTaskUploadListener(taskQuotas);
+    taskQuotas.onStart(parked);
+    try {
+      listener.onBeginNegotiate(null, null, null, null, List.of(), 0);
+      fail("task parked too long was not failed");
+    } catch (RateLimitException e) {
+      assertEquals(TaskQuotas.MAX_PARK_TIME_MSG, e.getMessage());
+    }
+    taskQuotas.onStop(parked);
+  }
+
+  @Test
+  public void testMaxParkedTasksRejectsTasksThatWouldBeParked() throws Exception {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            2,
+            () -> now);
+
+    Task<?> running = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(running));
+    List<Task<?>> parked = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      parked.add(task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A)));
+      assertFalse(taskQuotas.isReadyToStart(parked.get(i)));
+    }
+    Task<?> rejected = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(rejected));
+    verify(rejected, never()).cancel(false);
+
+    RejectedTaskUploadListener listener = new RejectedTaskUploadListener(taskQuotas);
+    taskQuotas.onStart(rejected);
+    try {
+      listener.onBeginNegotiate(null, null, null, null, List.of(), 0);
+      fail("rejected task was not failed");
+    } catch (RateLimitException e) {
+      assertEquals(TaskQuotas.MAX_PARKED_TASKS_MSG, e.getMessage());
+    }
+    taskQuotas.onStop(rejected);
+    listener.onBeginNegotiate(null, null, null, null, List.of(), 0);
+
+    for (Task<?> task : parked) {
+      assertFalse(taskQuotas.isReadyToStart(task));
+      verify(task, never()).cancel(false);
+    }
+  }
+
+  @Test
+  public void testMaxParkedTasksParksTasksThatCannotBeRejected() throws ConfigInvalidException {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 receivepack %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            1,
+            () -> now);
+
+    assertTrue(
+        taskQuotas.isReadyToStart(task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A))));
+    for (int i = 0; i < 2; i++) {
+      Task<?> task = task(INTERACTIVE.getName(), receivePackTask(PROJECT_X, USER_A));
+      assertFalse(taskQuotas.isReadyToStart(task));
+      verify(task, never()).cancel(false);
+    }
+  }
+
+  @Test
+  public void testRejectedTaskCancelledBeforeStartingIsForgotten() throws Exception {
+    TaskQuotas taskQuotas =
+        new TaskQuotas(
+            finder(
+                """
+[quota "%s"]
+  maxStartForTaskForQueue = 1 uploadpack %s
+"""
+                    .formatted(PROJECT_X, INTERACTIVE.getName())),
+            2,
+            2,
+            0,
+            1,
+            () -> now);
+
+    assertTrue(
+        taskQuotas.isReadyToStart(task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A))));
+    Task<?> parked = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertFalse(taskQuotas.isReadyToStart(parked));
+    Task<?> rejected = task(INTERACTIVE.getName(), uploadPackTask(PROJECT_X, USER_A));
+    assertTrue(taskQuotas.isReadyToStart(rejected));
+
+    when(rejected.getState()).thenReturn(Task.State.CANCELLED);
+    now += TaskQuotas.PARK_TIME_CHECK_INTERVAL_NANOS;
+    assertFalse(taskQuotas.isReadyToStart(parked));
+
+    RejectedTaskUploadListener listener = new RejectedTaskUploadListener(taskQuotas);
+    taskQuotas.onStart(rejected);
+    listener.onBeginNegotiate(null, null, null, null, List.of(), 0);
+  }
+
   private Task<?> task(String queueName, String taskString) {
     Task<?> task = Mockito.mock(Task.class);
     when(task.getTaskId()).thenReturn(new Random().nextInt());
@@ -86,11 +442,19 @@ public class TaskQuotasTest {
 
   private TaskQuotas taskQuotas(int interactiveThreads, int batchThreads, String cfg)
       throws ConfigInvalidException {
+    return new TaskQuotas(finder(cfg), interactiveThreads, batchThreads);
+  }
+
+  private QuotaFinder finder(String cfg) throws ConfigInvalidException {
+    QuotaFinder finder = spy(new QuotaFinder(null));
+    doReturn(config(cfg)).when(finder).getQuotaConfig();
+    return finder;
+  }
+
+  private Config config(String cfg) throws ConfigInvalidException {
     Config quotaConfig = new Config();
     quotaConfig.fromText(cfg);
-    QuotaFinder finder = spy(new QuotaFinder(null));
-    doReturn(quotaConfig).when(finder).getQuotaConfig();
-    return new TaskQuotas(finder, interactiveThreads, batchThreads);
+    return quotaConfig;
   }
 
   private String uploadPackTask(String project, String user) {
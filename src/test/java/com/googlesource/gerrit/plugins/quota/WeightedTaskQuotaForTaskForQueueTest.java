@@ -0,0 +1,118 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.quota;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.WorkQueue.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import org.eclipse.jgit.lib.Config;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WeightedTaskQuotaForTaskForQueueTest {
+  private static final String QUEUE = "SSH-Interactive-Worker";
+  private static final long GB = 1024L * 1024 * 1024;
+
+  private final QuotaSection section = new NamespacedQuotaSection(new Config(), "*");
+  private RepoSizeSnapshot repoSizes;
+  private int nextTaskId;
+
+  @Before
+  public void setUp() {
+    repoSizes = mock(RepoSizeSnapshot.class);
+    when(repoSizes.getIfKnown(Project.nameKey("small"))).thenReturn(OptionalLong.of(1024));
+    when(repoSizes.getIfKnown(Project.nameKey("large"))).thenReturn(OptionalLong.of(5 * GB));
+    when(repoSizes.getIfKnown(Project.nameKey("huge"))).thenReturn(OptionalLong.of(50 * GB));
+    when(repoSizes.getIfKnown(Project.nameKey("unknown"))).thenReturn(OptionalLong.empty());
+  }
+
+  @Test
+  public void costGrowsWithRepositorySize() {
+    WeightedTaskQuotaForTaskForQueue quota = quota("10 1g uploadpack " + QUEUE);
+
+    assertThat(quota.cost(task("small"))).isEqualTo(1);
+    assertThat(quota.cost(task("unknown"))).isEqualTo(1);
+    assertThat(quota.cost(task("large"))).isEqualTo(6);
+    assertThat(quota.cost(task("huge"))).isEqualTo(10);
+  }
+
+  @Test
+  public void totalCostIsLimited() {
+    WeightedTaskQuotaForTaskForQueue quota = quota("10 1g uploadpack " + QUEUE);
+
+    Task<?> large = task("large");
+    assertThat(quota.isReadyToStart(large)).isTrue();
+    for (int i = 0; i < 4; i++) {
+      assertThat(quota.isReadyToStart(task("small"))).isTrue();
+    }
+    assertThat(quota.isReadyToStart(task("small"))).isFalse();
+
+    quota.onStop(large);
+    assertThat(quota.isReadyToStart(task("large"))).isTrue();
+    assertThat(quota.isReadyToStart(task("small"))).isFalse();
+  }
+
+  @Test
+  public void refusedLargeTaskHoldsBackSmallTasks() {
+    WeightedTaskQuotaForTaskForQueue quota = quota("10 1g uploadpack " + QUEUE);
+    List<Task<?>> small = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      small.add(task("small"));
+      assertThat(quota.isReadyToStart(small.get(i))).isTrue();
+    }
+
+    Task<?> large = task("large");
+    assertThat(quota.isReadyToStart(large)).isFalse();
+    assertThat(quota.isReadyToStart(task("small"))).isFalse();
+
+    quota.onStop(small.get(0));
+    assertThat(quota.isReadyToStart(task("small"))).isFalse();
+    assertThat(quota.isReadyToStart(large)).isTrue();
+
+    quota.onStop(small.get(1));
+    assertThat(quota.isReadyToStart(task("small"))).isTrue();
+  }
+
+  @Test
+  public void hugeRepositoryRunsAlone() {
+    WeightedTaskQuotaForTaskForQueue quota = quota("10 1g uploadpack " + QUEUE);
+
+    Task<?> huge = task("huge");
+    assertThat(quota.isReadyToStart(huge)).isTrue();
+    assertThat(quota.isReadyToStart(task("small"))).isFalse();
+
+    quota.onStop(huge);
+    assertThat(quota.isReadyToStart(task("small"))).isTrue();
+  }
+
+  private WeightedTaskQuotaForTaskForQueue quota(String cfg) {
+    return (WeightedTaskQuotaForTaskForQueue)
+        WeightedTaskQuotaForTaskForQueue.build(section, cfg, repoSizes).get();
+  }
+
+  private Task<?> task(String project) {
+    Task<?> task = mock(Task.class);
+    when(task.getTaskId()).thenReturn(nextTaskId++);
+    when(task.getQueueName()).thenReturn(QUEUE);
+    when(task.toString()).thenReturn("git-upload-pack /%s (user)".formatted(project));
+    return task;
+  }
+}